@@ -0,0 +1,320 @@
+/******************************************************************************
+ * Compilation: $ javac ConcurrentPercolation.java
+ * Execution: $ java ConcurrentPercolation N [threads]
+ * Testing: $ java ConcurrentPercolation
+ *
+ * Percolation that any number of threads may open sites of at once, and
+ * query at any time, without locks. It keeps the original two union-finds
+ * (one with a virtual top site for isFull, one with virtual top and bottom
+ * for percolates) because a same-set query on a concurrent union-find is
+ * linearizable, while merging per-root TOP/BOTTOM bits onto a new root
+ * can't be done atomically with the link that creates it.
+ *
+ * The union-finds are the randomized-linking, CAS-based kind of Jayanti and
+ * Tarjan: a root is linked below another only by a CAS on its own parent
+ * entry, the root with the lower random priority goes below, and find
+ * halves paths with CASes that may fail harmlessly.
+ ******************************************************************************/
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class ConcurrentPercolation {
+
+    private static final VarHandle LONGS =
+        MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int N; // Length of one side of the grid.
+    private final long top;
+    private final long bottom;
+    // One bit per site.
+    private final long[] open;
+    private final UnionFind full;
+    private final UnionFind span;
+    private volatile boolean percolates;
+
+    // create N-by-N grid, with all sites blocked
+    public ConcurrentPercolation(int N) {
+        // Parent entries are unsigned ints holding parent + 1, so the N^2
+        // sites and two virtual sites must number less than 2^32.
+        if (N <= 0 || N >= 0xffff)
+            throw new IllegalArgumentException("Dimension must be in [1, 2^16 - 1)");
+        this.N = N;
+        long sites = (long) N * N;
+        top = sites;
+        bottom = sites + 1;
+        open = new long[(int) ((sites + 63) >>> 6)];
+        long seed = new SplittableRandom().nextLong();
+        full = new UnionFind(sites + 1, seed);
+        span = new UnionFind(sites + 2, seed);
+    }
+
+    // is site (row i, column j) open?
+    public boolean isOpen(int i, int j) {
+        long index = indexOf(i, j);
+        long word = (long) LONGS.getVolatile(open, (int) (index >>> 6));
+        return (word & (1L << index)) != 0;
+    }
+
+    // is site (row i, column j) full?
+    public boolean isFull(int i, int j) {
+        return full.connected(indexOf(i, j), top);
+    }
+
+    // does the system percolate?
+    public boolean percolates() {
+        if (percolates)
+            return true;
+        if (!span.connected(top, bottom))
+            return false;
+        percolates = true;
+        return true;
+    }
+
+    // open site (row i, column j) if it is not already; safe to call from
+    // many threads at once
+    public void open(int i, int j) {
+        long index = indexOf(i, j);
+        long bit = 1L << index;
+        long word = (long) LONGS.getAndBitwiseOr(open, (int) (index >>> 6), bit);
+        if ((word & bit) != 0)
+            return;
+
+        if (i == 1) {
+            full.union(index, top);
+            span.union(index, top);
+        }
+        if (i == N)
+            span.union(index, bottom);
+        // A neighbor opened concurrently either sees this site's bit or has
+        // set its own bit before we look, so every adjacent pair of open
+        // sites is unioned by at least one of the two threads.
+        if (i < N)
+            connect(index, index + N);
+        if (i > 1)
+            connect(index, index - N);
+        if (j < N)
+            connect(index, index + 1);
+        if (j > 1)
+            connect(index, index - 1);
+    }
+
+    private void connect(long index, long neighbor) {
+        long word = (long) LONGS.getVolatile(open, (int) (neighbor >>> 6));
+        if ((word & (1L << neighbor)) == 0)
+            return;
+        full.union(index, neighbor);
+        span.union(index, neighbor);
+    }
+
+    /* Convert grid coordinates of the form (x, y) where x,y in {1,...,N}
+    to a site index in row-major order.
+    */
+    private long indexOf(int row, int col) {
+        if (row <= 0 || row > N || col <= 0 || col > N)
+            throw new IndexOutOfBoundsException(
+                    "(" + row + ", " + col + ") out of bounds "
+                    + "for " + N + "^2 grid.");
+        return (long) (row - 1) * N + (col - 1);
+    }
+
+    /* Concurrent union-find over long indices. parent entries are unsigned
+    ints holding parent + 1, 0 meaning a root, so a new forest is all zeros;
+    they are split into chunks since one Java array can't hold 2^32 ints.
+    */
+    private static class UnionFind {
+        private static final VarHandle INTS =
+            MethodHandles.arrayElementVarHandle(int[].class);
+        private static final int SHIFT = 30;
+        private static final int MASK = (1 << SHIFT) - 1;
+        private final int[][] parent;
+        private final long seed;
+
+        UnionFind(long n, long seed) {
+            this.seed = seed;
+            parent = new int[(int) ((n + MASK) >>> SHIFT)][];
+            for (int c = 0; c < parent.length; c++)
+                parent[c] = new int[(int) Math.min(MASK + 1L,
+                            n - ((long) c << SHIFT))];
+        }
+
+        private long parentOf(long x) {
+            int[] chunk = parent[(int) (x >>> SHIFT)];
+            long up = Integer.toUnsignedLong(
+                    (int) INTS.getVolatile(chunk, (int) (x & MASK)));
+            return up == 0 ? x : up - 1;
+        }
+
+        private boolean casParent(long x, long expect, long update) {
+            int[] chunk = parent[(int) (x >>> SHIFT)];
+            int from = expect == x ? 0 : (int) (expect + 1);
+            return INTS.compareAndSet(chunk, (int) (x & MASK), from,
+                    (int) (update + 1));
+        }
+
+        // Random but fixed priority of each site (a bijective mix of its
+        // index), so linking is by random order without storing ranks.
+        private long priority(long x) {
+            long z = x ^ seed;
+            z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+            z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return z ^ (z >>> 33);
+        }
+
+        long find(long x) {
+            while (true) {
+                long p = parentOf(x);
+                if (p == x)
+                    return x;
+                long g = parentOf(p);
+                if (g == p)
+                    return p;
+                casParent(x, p, g);
+                x = g;
+            }
+        }
+
+        void union(long a, long b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b)
+                    return;
+                if (priority(a) > priority(b)) {
+                    long swap = a;
+                    a = b;
+                    b = swap;
+                }
+                if (casParent(a, a, b))
+                    return;
+            }
+        }
+
+        /* Linearizable same-set test: if the roots differ, the answer is
+        "no" only if a is still a root afterwards, i.e. nothing was linked
+        between the two finds that could have joined them.
+        */
+        boolean connected(long a, long b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b)
+                    return true;
+                if (parentOf(a) == a)
+                    return false;
+            }
+        }
+    }
+
+    /* Several threads each open the same fill fraction of the sites, every
+    thread in its own random order, so most sites are opened by two threads
+    at once; the grid must then agree site for site with a Percolation
+    opened one site at a time.
+    */
+    private static boolean testAgreement(final int N, double fill,
+            int threads, long seed) throws InterruptedException {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] sites = new int[N * N];
+        for (int k = 0; k < sites.length; k++)
+            sites[k] = k;
+        shuffle(sites, random);
+        final int[] chosen = Arrays.copyOf(sites,
+                (int) (fill * N * N));
+        Percolation expected = new Percolation(N);
+        for (int site: chosen)
+            expected.open(site / N + 1, site % N + 1);
+
+        final ConcurrentPercolation tested = new ConcurrentPercolation(N);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int[] order = chosen.clone();
+            shuffle(order, random.split());
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int site: order)
+                        tested.open(site / N + 1, site % N + 1);
+                }
+            });
+        }
+        for (Thread worker: workers)
+            worker.start();
+        for (Thread worker: workers)
+            worker.join();
+
+        for (int i = 1; i <= N; i++)
+            for (int j = 1; j <= N; j++)
+                if (tested.isOpen(i, j) != expected.isOpen(i, j)
+                        || tested.isFull(i, j) != expected.isFull(i, j)) {
+                    System.err.println("N = " + N + ", fill = " + fill
+                            + ": disagrees with Percolation at "
+                            + i + ", " + j);
+                    return false;
+                }
+        if (tested.percolates() != expected.percolates()) {
+            System.err.println("N = " + N + ", fill = " + fill
+                    + ": percolates() disagrees with Percolation");
+            return false;
+        }
+        return true;
+    }
+
+    private static void shuffle(int[] a, SplittableRandom random) {
+        for (int k = a.length - 1; k > 0; k--) {
+            int j = random.nextInt(k + 1);
+            int swap = a[k];
+            a[k] = a[j];
+            a[j] = swap;
+        }
+    }
+
+    /* With no arguments, run the tests; with N, open random sites from
+    several threads until the grid percolates.
+    */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            int passes = 0;
+            int total = 0;
+            long seed = 0;
+            for (int N: new int[] {1, 2, 17, 200})
+                for (double fill: new double[] {0.3, 0.59, 0.8}) {
+                    total++;
+                    if (testAgreement(N, fill, 4, seed++))
+                        passes++;
+                }
+            System.err.println("Tests: " + passes + "/" + total);
+            return;
+        }
+        final int N = Integer.parseInt(args[0]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 1)
+            threads = Integer.parseInt(args[1]);
+        final ConcurrentPercolation p = new ConcurrentPercolation(N);
+        final SplittableRandom master = new SplittableRandom();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final SplittableRandom random = master.split();
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    while (!p.percolates())
+                        p.open(random.nextInt(1, N + 1),
+                                random.nextInt(1, N + 1));
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker: workers)
+            worker.join();
+        long elapsed = System.nanoTime() - start;
+        long opened = 0;
+        for (long word: p.open)
+            opened += Long.bitCount(word);
+        System.out.println("threads                 = " + threads);
+        // Threads may open a few more sites before they notice.
+        System.out.println("open fraction           = "
+                + (double) opened / ((long) N * N));
+        System.out.println("seconds                 = " + elapsed / 1e9);
+    }
+}
@@ -0,0 +1,369 @@
+/******************************************************************************
+ * Compilation: $ javac HoshenKopelman.java
+ * Execution: $ java HoshenKopelman grid-file ...
+ * Testing: $ java HoshenKopelman
+ *
+ * Decides whether a fixed N-by-N configuration percolates by streaming it
+ * one row at a time (Hoshen-Kopelman cluster labelling). Only the previous
+ * and current rows of labels and a label union-find of O(N) entries are
+ * kept, so grids much larger than the heap can be checked.
+ *
+ * Two file formats are read:
+ *   text    N, then N*N sites in row-major order, '1' or '#' for open and
+ *           '0' or '.' for blocked; whitespace is ignored
+ *   binary  the four bytes "PRC1", N as a big-endian int, then N rows of
+ *           (N + 7) / 8 bytes, column j (from 0) open iff bit j % 8 of
+ *           byte j / 8 is set
+ ******************************************************************************/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+public class HoshenKopelman {
+
+    private static final byte[] MAGIC = {'P', 'R', 'C', '1'};
+
+    private final int N; // Length of one side of the grid.
+    private int row;     // Rows seen so far.
+    // Cluster labels of the previous and current row; 0 is blocked. After
+    // each row the labels in use are renumbered 1..labels.
+    private int[] previous;
+    private int[] current;
+    private int labels;
+    // Union-find over labels. top[l], meaningful on roots, is the leftmost
+    // top-row column (from 1) of the cluster, or 0 if it doesn't reach the
+    // top row.
+    private final int[] parent;
+    private final int[] top;
+    private final int[] renumber;
+    private final int[] tops;
+
+    // start checking an N-by-N grid
+    public HoshenKopelman(int N) {
+        if (N <= 0)
+            throw new IllegalArgumentException("Dimension must be positive");
+        this.N = N;
+        previous = new int[N];
+        current = new int[N];
+        // At most ceil(N/2) clusters can cross a row boundary and at most
+        // ceil(N/2) new labels can start in one row.
+        parent = new int[N + 2];
+        top = new int[N + 2];
+        renumber = new int[N + 2];
+        tops = new int[N + 2];
+    }
+
+    // add the next row, bit j - 1 of open standing for column j
+    public void addRow(BitSet open) {
+        if (row == N)
+            throw new IllegalStateException("All " + N + " rows already added");
+        if (open.length() > N)
+            throw new IndexOutOfBoundsException(
+                    "Column " + open.length() + " out of bounds "
+                    + "for " + N + "^2 grid.");
+        int next = labels;
+        Arrays.fill(current, 0);
+        for (int c = open.nextSetBit(0); c >= 0; c = open.nextSetBit(c + 1)) {
+            int up = previous[c];
+            int left = c > 0 ? current[c - 1] : 0;
+            int label;
+            if (up == 0 && left == 0) {
+                label = ++next;
+                parent[label] = label;
+                top[label] = row == 0 ? c + 1 : 0;
+            }
+            else if (left == 0)
+                label = find(up);
+            else if (up == 0)
+                label = left;
+            else
+                label = union(find(up), find(left));
+            current[c] = label;
+        }
+        relabel();
+        int[] swap = previous;
+        previous = current;
+        current = swap;
+        row++;
+    }
+
+    /* Renumber the clusters present in current as 1..labels (roots of
+    themselves), carrying over their top columns, and forget every other
+    label. This keeps the label space O(N) however many rows are streamed.
+    */
+    private void relabel() {
+        int count = 0;
+        for (int c = 0; c < N; c++) {
+            if (current[c] == 0)
+                continue;
+            int root = find(current[c]);
+            if (renumber[root] == 0) {
+                renumber[root] = ++count;
+                tops[count] = top[root];
+            }
+            current[c] = renumber[root];
+        }
+        Arrays.fill(renumber, 0);
+        for (int l = 1; l <= count; l++) {
+            parent[l] = l;
+            top[l] = tops[l];
+        }
+        labels = count;
+    }
+
+    private int find(int l) {
+        while (parent[l] != l) {
+            parent[l] = parent[parent[l]];
+            l = parent[l];
+        }
+        return l;
+    }
+
+    // Union two roots, keeping the leftmost top column; return the new root.
+    private int union(int a, int b) {
+        if (a == b)
+            return a;
+        if (a > b) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        parent[b] = a;
+        if (top[a] == 0 || (top[b] != 0 && top[b] < top[a]))
+            top[a] = top[b];
+        return a;
+    }
+
+    // can the grid still percolate, given the rows seen so far?
+    public boolean mayPercolate() {
+        if (row == 0)
+            return true;
+        for (int l = 1; l <= labels; l++)
+            if (top[l] != 0)
+                return true;
+        return false;
+    }
+
+    // does the system percolate? (all N rows must have been added)
+    public boolean percolates() {
+        return spanningClusters().length > 0;
+    }
+
+    /* The clusters connecting the top row to the last row added, each
+    identified by its leftmost top-row column (from 1), in increasing order.
+    Once every row has been added these are the spanning clusters.
+    */
+    public int[] spanningClusters() {
+        if (row < N)
+            throw new IllegalStateException(
+                    "Only " + row + " of " + N + " rows added");
+        int[] columns = new int[labels];
+        int count = 0;
+        for (int l = 1; l <= labels; l++)
+            if (top[l] != 0)
+                columns[count++] = top[l];
+        columns = Arrays.copyOf(columns, count);
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    /* Check a grid file in either format. Reading stops early once no
+    cluster reaching the top row is left, in which case no clusters span.
+    */
+    public static HoshenKopelman check(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            Source in = new Source(channel);
+            boolean binary = true;
+            for (int k = 0; k < MAGIC.length && binary; k++)
+                binary = in.peek(k) == MAGIC[k];
+            int N;
+            if (binary) {
+                in.skip(MAGIC.length);
+                N = 0;
+                for (int k = 0; k < 4; k++)
+                    N = N << 8 | in.next();
+            }
+            else
+                N = in.nextInt();
+            HoshenKopelman checker = new HoshenKopelman(N);
+            BitSet open = new BitSet(N);
+            for (int i = 0; i < N && checker.mayPercolate(); i++) {
+                open.clear();
+                if (binary)
+                    in.nextPackedRow(open, N);
+                else
+                    in.nextTextRow(open, N);
+                checker.addRow(open);
+            }
+            // Rows skipped after an early stop can't create spanning
+            // clusters; treat the grid as complete.
+            checker.row = N;
+            return checker;
+        }
+    }
+
+    // Buffered byte reader over a file channel.
+    private static class Source {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        Source(FileChannel channel) throws IOException {
+            this.channel = channel;
+            buffer.limit(0);
+            fill(MAGIC.length);
+        }
+
+        // Make at least n bytes available unless the file ends first.
+        private void fill(int n) throws IOException {
+            if (buffer.remaining() >= n)
+                return;
+            buffer.compact();
+            while (buffer.position() < n && channel.read(buffer) >= 0)
+                ;
+            buffer.flip();
+        }
+
+        int peek(int k) {
+            return k < buffer.remaining() ? buffer.get(buffer.position() + k) : -1;
+        }
+
+        void skip(int n) throws IOException {
+            for (int k = 0; k < n; k++)
+                next();
+        }
+
+        int next() throws IOException {
+            fill(1);
+            if (!buffer.hasRemaining())
+                throw new IOException("Unexpected end of grid file");
+            return buffer.get() & 0xff;
+        }
+
+        private int nextNonSpace() throws IOException {
+            int b;
+            do {
+                b = next();
+            } while (Character.isWhitespace(b));
+            return b;
+        }
+
+        int nextInt() throws IOException {
+            int b = nextNonSpace();
+            int value = 0;
+            while (b >= '0' && b <= '9') {
+                value = Math.addExact(Math.multiplyExact(value, 10), b - '0');
+                fill(1);
+                if (!buffer.hasRemaining())
+                    break;
+                b = next();
+            }
+            return value;
+        }
+
+        void nextTextRow(BitSet open, int N) throws IOException {
+            for (int c = 0; c < N; c++) {
+                int b = nextNonSpace();
+                if (b == '1' || b == '#')
+                    open.set(c);
+                else if (b != '0' && b != '.')
+                    throw new IOException("Bad site character '" + (char) b + "'");
+            }
+        }
+
+        void nextPackedRow(BitSet open, int N) throws IOException {
+            for (int c = 0; c < N; c += 8) {
+                int b = next();
+                for (int bit = 0; bit < 8 && c + bit < N; bit++)
+                    if ((b & (1 << bit)) != 0)
+                        open.set(c + bit);
+            }
+        }
+    }
+
+    /* Random grids, each site open with probability fill, must percolate
+    for HoshenKopelman exactly when they do for Percolation: streamed row
+    by row, and read back from a text and a binary file.
+    */
+    private static boolean testAgreement(int N, double fill, long seed)
+            throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        Path text = Files.createTempFile("percolation", ".txt");
+        Path binary = Files.createTempFile("percolation", ".bin");
+        try {
+            for (int grid = 0; grid < 50; grid++) {
+                Percolation expected = new Percolation(N);
+                HoshenKopelman streamed = new HoshenKopelman(N);
+                StringBuilder lines = new StringBuilder(N + "\n");
+                ByteBuffer packed = ByteBuffer.allocate(8 + N * ((N + 7) / 8));
+                packed.put(MAGIC).putInt(N);
+                for (int i = 1; i <= N; i++) {
+                    BitSet open = new BitSet(N);
+                    for (int j = 1; j <= N; j++)
+                        if (random.nextDouble() < fill) {
+                            open.set(j - 1);
+                            expected.open(i, j);
+                        }
+                    streamed.addRow(open);
+                    for (int j = 0; j < N; j++)
+                        lines.append(open.get(j) ? '#' : '.');
+                    lines.append('\n');
+                    byte[] row = Arrays.copyOf(open.toByteArray(), (N + 7) / 8);
+                    packed.put(row);
+                }
+                Files.write(text, lines.toString()
+                        .getBytes(StandardCharsets.US_ASCII));
+                Files.write(binary, packed.array());
+                boolean percolates = expected.percolates();
+                if (streamed.percolates() != percolates
+                        || check(text).percolates() != percolates
+                        || check(binary).percolates() != percolates) {
+                    System.err.println("N = " + N + ", fill = " + fill
+                            + ": disagrees with Percolation on grid " + grid);
+                    return false;
+                }
+            }
+        }
+        finally {
+            Files.delete(text);
+            Files.delete(binary);
+        }
+        return true;
+    }
+
+    // With no arguments, run the tests; otherwise check each grid file.
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            int passes = 0;
+            int total = 0;
+            long seed = 0;
+            for (int N: new int[] {1, 2, 7, 64})
+                for (double fill: new double[] {0.4, 0.59, 0.75}) {
+                    total++;
+                    if (testAgreement(N, fill, seed++))
+                        passes++;
+                }
+            System.err.println("Tests: " + passes + "/" + total);
+            return;
+        }
+        for (String filename: args) {
+            HoshenKopelman checker = check(Paths.get(filename));
+            int[] spanning = checker.spanningClusters();
+            System.out.print(filename + ": ");
+            if (spanning.length == 0)
+                System.out.println("does not percolate");
+            else
+                System.out.println("percolates; spanning clusters from top "
+                        + "columns " + Arrays.toString(spanning));
+        }
+    }
+}
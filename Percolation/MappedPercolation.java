@@ -0,0 +1,377 @@
+/******************************************************************************
+ * Compilation: $ javac MappedPercolation.java
+ * Testing: $ java MappedPercolation [N]
+ *
+ * Percolation for grids too big for Java arrays. Sites are indexed with a
+ * long and all per-site state lives in a memory-mapped file, so heap use
+ * does not grow with N; the operating system pages the file in and out.
+ *
+ * The file is a 16 byte header ("PRCM", format version, N, state bits),
+ * then three regions, all zero for a fresh grid:
+ *   open bits   one bit per site, packed into longs
+ *   parent      one long per site: parent index + 1, or 0 for a root
+ *   meta        one byte per site: rank << 2 | BOTTOM | TOP (roots only)
+ * A grid closed with a file of its own can be reopened with open(), which
+ * maps the file again and reads nothing else, however big the grid.
+ ******************************************************************************/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+public class MappedPercolation implements Closeable {
+
+    private static final byte TOP = 1;
+    private static final byte BOTTOM = 2;
+    private static final int RANK_SHIFT = 2;
+    // Each 1 GiB chunk of the file is a separate mapping, and Linux by
+    // default allows a process 65530 (vm.max_map_count), some of them
+    // taken by the JVM itself. At 9 bytes and a bit per site, N = 2^20
+    // means a 9.1 TiB file in about 9350 mappings, which leaves ample
+    // headroom and still fits ext4's 16 TiB file size limit.
+    private static final int MAX_N = 1 << 20;
+
+    private static final int MAGIC = 0x5052434d; // "PRCM"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    // Where the state bits are in the header, and what they are.
+    private static final int STATE = 12;
+    private static final int PERCOLATES = 1;
+    // Set by close() once everything is on disk, and cleared by open(), so
+    // a file whose grid wasn't closed cleanly isn't taken for a good one.
+    private static final int CLOSED = 2;
+
+    private final int N; // Length of one side of the grid.
+    private final long sites;
+    private final Path file;
+    private final boolean temporary;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private Region open;
+    private Region parent;
+    private Region meta;
+    private boolean percolates;
+
+    // create N-by-N grid, with all sites blocked, backed by a temporary file
+    public MappedPercolation(int N) {
+        this(N, null);
+    }
+
+    // create N-by-N grid, with all sites blocked, backed by file (which is
+    // truncated); a null file means a temporary file deleted by close()
+    public MappedPercolation(int N, Path file) {
+        if (N <= 0 || N > MAX_N)
+            throw new IllegalArgumentException("Dimension must be in [1, "
+                    + MAX_N + "]");
+        this.N = N;
+        sites = (long) N * N;
+        try {
+            temporary = file == null;
+            this.file = temporary
+                ? Files.createTempFile("percolation", ".grid") : file;
+            channel = FileChannel.open(this.file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            // Extending the file leaves it zero filled (and sparse where the
+            // file system allows), which is exactly a blocked grid.
+            channel.truncate(0);
+            map();
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, N);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedPercolation(int N, Path file, FileChannel channel)
+            throws IOException {
+        this.N = N;
+        sites = (long) N * N;
+        this.file = file;
+        temporary = false;
+        this.channel = channel;
+        map();
+        percolates = (header.getInt(STATE) & PERCOLATES) != 0;
+    }
+
+    /* The grid a MappedPercolation left in file when it was closed, backed
+    by that file again. The file is mapped, not read, so this takes the same
+    time for any N.
+    */
+    public static MappedPercolation open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0)
+                ;
+            header.flip();
+            if (header.remaining() < HEADER_BYTES
+                    || header.getInt() != MAGIC)
+                throw new IOException(file + " is not a percolation grid");
+            if (header.getInt() != VERSION)
+                throw new IOException(file + ": unknown grid version");
+            int N = header.getInt();
+            if (N <= 0 || N > MAX_N
+                    || channel.size() != fileBytes((long) N * N))
+                throw new IOException(file + ": truncated or corrupt grid");
+            if ((header.getInt() & CLOSED) == 0)
+                throw new IOException(file + ": grid was not closed cleanly");
+            MappedPercolation p = new MappedPercolation(N, file, channel);
+            p.header.putInt(STATE, p.header.getInt(STATE) & ~CLOSED);
+            p.header.force();
+            return p;
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static long openBytes(long sites) {
+        return ((sites + 63) >>> 6) << 3;
+    }
+
+    private static long fileBytes(long sites) {
+        return HEADER_BYTES + openBytes(sites) + 9 * sites;
+    }
+
+    private void map() throws IOException {
+        long openBytes = openBytes(sites);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        open = new Region(channel, HEADER_BYTES, openBytes);
+        parent = new Region(channel, HEADER_BYTES + openBytes, sites << 3);
+        meta = new Region(channel, HEADER_BYTES + openBytes + (sites << 3),
+                sites);
+    }
+
+    // is site (row i, column j) open?
+    public boolean isOpen(int i, int j) {
+        return isOpenSite(indexOf(i, j));
+    }
+
+    // is site (row i, column j) full?
+    public boolean isFull(int i, int j) {
+        long index = indexOf(i, j);
+        return isOpenSite(index) && (meta.getByte(find(index)) & TOP) != 0;
+    }
+
+    // does the system percolate?
+    public boolean percolates() {
+        return percolates;
+    }
+
+    // open site (row i, column j) if it is not already
+    public void open(int i, int j) {
+        long index = indexOf(i, j);
+        if (isOpenSite(index))
+            return;
+        long word = index >>> 6;
+        open.putLong(word, open.getLong(word) | (1L << index));
+
+        byte flags = 0;
+        if (i == 1)
+            flags |= TOP;
+        if (i == N)
+            flags |= BOTTOM;
+        meta.putByte(index, flags);
+        if (flags == (TOP | BOTTOM)) // N == 1
+            setPercolates();
+
+        if (i < N)
+            connect(index, index + N);
+        if (i > 1)
+            connect(index, index - N);
+        if (j < N)
+            connect(index, index + 1);
+        if (j > 1)
+            connect(index, index - 1);
+    }
+
+    // unmap the grid and delete its file if it is temporary, else force it
+    // to disk and mark it closed, for open() to reopen
+    public void close() {
+        if (channel == null)
+            return;
+        try {
+            if (!temporary) {
+                open.force();
+                parent.force();
+                meta.force();
+                header.putInt(STATE, header.getInt(STATE) | CLOSED);
+                header.force();
+            }
+            channel.close();
+            if (temporary)
+                Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            channel = null;
+            header = null;
+            open = parent = meta = null;
+        }
+    }
+
+    private boolean isOpenSite(long index) {
+        return (open.getLong(index >>> 6) & (1L << index)) != 0;
+    }
+
+    // Find with path halving: every other site on the path is pointed at its
+    // grandparent, which keeps paths short without a second pass.
+    private long find(long p) {
+        long up = parent.getLong(p);
+        while (up != 0) {
+            long grand = parent.getLong(up - 1);
+            if (grand == 0)
+                return up - 1;
+            parent.putLong(p, grand);
+            p = grand - 1;
+            up = parent.getLong(p);
+        }
+        return p;
+    }
+
+    // Union by rank of the component of index with that of neighbor, if the
+    // neighbor is open, carrying the TOP/BOTTOM bits to the new root.
+    private void connect(long index, long neighbor) {
+        if (!isOpenSite(neighbor))
+            return;
+        long a = find(index);
+        long b = find(neighbor);
+        if (a == b)
+            return;
+        int metaA = meta.getByte(a);
+        int metaB = meta.getByte(b);
+        int rankA = metaA >>> RANK_SHIFT;
+        int rankB = metaB >>> RANK_SHIFT;
+        int flags = (metaA | metaB) & (TOP | BOTTOM);
+        if (rankA < rankB) {
+            parent.putLong(a, b + 1);
+            meta.putByte(b, (byte) (rankB << RANK_SHIFT | flags));
+        }
+        else {
+            parent.putLong(b, a + 1);
+            if (rankA == rankB)
+                rankA++;
+            meta.putByte(a, (byte) (rankA << RANK_SHIFT | flags));
+        }
+        if (flags == (TOP | BOTTOM))
+            setPercolates();
+    }
+
+    private void setPercolates() {
+        percolates = true;
+        header.putInt(STATE, header.getInt(STATE) | PERCOLATES);
+    }
+
+    /* Convert grid coordinates of the form (x, y) where x,y in {1,...,N}
+    to a site index in row-major order.
+    */
+    private long indexOf(int row, int col) {
+        if (row <= 0 || row > N || col <= 0 || col > N)
+            throw new IndexOutOfBoundsException(
+                    "(" + row + ", " + col + ") out of bounds "
+                    + "for " + N + "^2 grid.");
+        return (long) (row - 1) * N + (col - 1);
+    }
+
+    /* A byte range of the file mapped as a sequence of CHUNK sized buffers,
+    since a single MappedByteBuffer is limited to 2^31 - 1 bytes. CHUNK is a
+    multiple of 8, so aligned longs never straddle two buffers.
+    */
+    private static class Region {
+        private static final int SHIFT = 30;
+        private static final long CHUNK = 1L << SHIFT;
+        private static final long MASK = CHUNK - 1;
+        private final MappedByteBuffer[] chunks;
+
+        Region(FileChannel channel, long offset, long length)
+                throws IOException {
+            chunks = new MappedByteBuffer[(int) ((length + MASK) >>> SHIFT)];
+            for (int c = 0; c < chunks.length; c++) {
+                long start = (long) c << SHIFT;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        offset + start, Math.min(CHUNK, length - start));
+            }
+        }
+
+        long getLong(long index) {
+            long at = index << 3;
+            return chunks[(int) (at >>> SHIFT)].getLong((int) (at & MASK));
+        }
+
+        void putLong(long index, long value) {
+            long at = index << 3;
+            chunks[(int) (at >>> SHIFT)].putLong((int) (at & MASK), value);
+        }
+
+        byte getByte(long index) {
+            return chunks[(int) (index >>> SHIFT)].get((int) (index & MASK));
+        }
+
+        void putByte(long index, byte value) {
+            chunks[(int) (index >>> SHIFT)].put((int) (index & MASK), value);
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks)
+                chunk.force();
+        }
+    }
+
+    /* Open random sites until the grid percolates and report the fraction;
+    then reopen the file and check the grid came back the same.
+    */
+    public static void main(String[] args) throws IOException {
+        int N = 1000;
+        if (args.length > 0)
+            N = Integer.parseInt(args[0]);
+        SplittableRandom random = new SplittableRandom();
+        long opened = 0;
+        Path file = Files.createTempFile("percolation", ".grid");
+        try {
+            int fullSites = 0;
+            try (MappedPercolation p = new MappedPercolation(N, file)) {
+                while (!p.percolates()) {
+                    int i = random.nextInt(1, N + 1);
+                    int j = random.nextInt(1, N + 1);
+                    if (!p.isOpen(i, j)) {
+                        p.open(i, j);
+                        opened++;
+                    }
+                }
+                for (int j = 1; j <= N; j++)
+                    if (p.isFull(N, j))
+                        fullSites++;
+            }
+            System.out.println("percolation threshold   = "
+                    + (double) opened / ((long) N * N));
+
+            long start = System.nanoTime();
+            try (MappedPercolation p = open(file)) {
+                long elapsed = System.nanoTime() - start;
+                boolean same = p.percolates();
+                for (int j = 1; j <= N; j++)
+                    if (p.isFull(N, j))
+                        fullSites--;
+                System.out.println("reopened grid agrees    = "
+                        + (same && fullSites == 0));
+                System.out.println("seconds to reopen       = "
+                        + elapsed / 1e9);
+            }
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -6,79 +6,351 @@
  * Testing: $ java Percolation
  *
  * Data type to model physical percolation (say of water through concrete).
+ *
+ * A grid can be saved to a snapshot file and loaded back. The file is a
+ * 16 byte header ("PRCS", format version, N, percolates), the status byte
+ * of every site, then the union-find array as little-endian ints, so both
+ * directions are straight bulk copies through memory-mapped windows. A save
+ * replaces the old snapshot atomically, and load checks the union-find
+ * before adopting it.
  ******************************************************************************/
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
 public class Percolation {
 
+    // Bits of the per-site status byte. TOP and BOTTOM are only meaningful on
+    // the root of a component, where they record whether any site of that
+    // component lies in the top or bottom row.
+    private static final byte OPEN = 1;
+    private static final byte TOP = 2;
+    private static final byte BOTTOM = 4;
+    // Opened by a bulk call whose unions haven't been done yet.
+    private static final byte PENDING = 8;
+
+    private static final int SNAPSHOT_MAGIC = 0x50524353; // "PRCS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    // Largest mapping used when copying; a multiple of 4 so no int in the
+    // union-find array straddles two windows.
+    private static final int WINDOW = 1 << 30;
+    // Largest N whose N^2 sites fit in an int, which indexes every array.
+    private static final int MAX_N = 46340;
+
     private final int N; // Length of one side of the grid.
-    private boolean[] open;
-    private WeightedQuickUnionUF percolation;
-    private WeightedQuickUnionUF fullness;
-    private final int virtualTop;
-    private final int virtualBottom;
+    private byte[] status;
+    private SiteUnionFind uf;
+    private boolean percolates;
+    // Null unless PercolationMetrics.ENABLED.
+    private PercolationMetrics metrics;
 
     // create N-by-N grid, with all sites blocked
     public Percolation(int N) {
-        // The union-find data type we're using indexes its arrays with an int,
-        // so our N^2 sized grid must have N^2 <= 2^32 - 1 <=> N > 2^16.
-        // N^2 <= 2^32 - 3 <-> N^2 < 2^32 - 2 -> N < 0xffff
-        if (N >= 0xffff)
-            throw new IllegalArgumentException("Dimension must be < 2^16");
+        // The status and union-find arrays have N^2 entries indexed by an
+        // int, so N^2 <= 2^31 - 1 <-> N <= 46340.
+        if (N <= 0 || N > MAX_N)
+            throw new IllegalArgumentException("Dimension must be in [1, "
+                    + MAX_N + "]");
         this.N = N;
-        open = new boolean[N*N];
-        // Add two for the virtual top and bottom
-        percolation = new WeightedQuickUnionUF(N*N + 2);
-        fullness = new WeightedQuickUnionUF(N*N + 2);
-        virtualTop = indexOf(N, N) + 1;
-        virtualBottom = indexOf(N, N) + 2;
+        status = new byte[N*N];
+        // No virtual top and bottom sites: a single union-find whose roots
+        // carry the TOP/BOTTOM bits can't backwash, so we don't need the
+        // second instance the virtual bottom used to force on us.
+        uf = new SiteUnionFind(N*N);
+        if (PercolationMetrics.ENABLED) {
+            metrics = new PercolationMetrics(N);
+            uf.observe(metrics);
+        }
+    }
+
+    private Percolation(int N, byte[] status, SiteUnionFind uf,
+            boolean percolates) {
+        this.N = N;
+        this.status = status;
+        this.uf = uf;
+        this.percolates = percolates;
+        if (PercolationMetrics.ENABLED) {
+            metrics = new PercolationMetrics(N);
+            for (int index = 0; index < status.length; index++)
+                if ((status[index] & OPEN) != 0)
+                    metrics.restored(uf.find(index));
+            if (percolates)
+                metrics.percolated();
+            uf.observe(metrics);
+        }
+    }
+
+    // block every site again, reusing the existing arrays
+    public void reset() {
+        Arrays.fill(status, (byte) 0);
+        uf.reset();
+        percolates = false;
+        if (PercolationMetrics.ENABLED)
+            metrics.reset();
+    }
+
+    // instrumentation of this grid; null unless the JVM was started with
+    // -Dpercolation.metrics=true
+    public PercolationMetrics metrics() {
+        return metrics;
     }
 
     // is site (row i, column j) open?
     public boolean isOpen(int i, int j) {
-        return open[indexOf(i, j)];
+        return (status[indexOf(i, j)] & OPEN) != 0;
     }
 
     // is site (row i, column j) full?
     public boolean isFull(int i, int j) {
-        return fullness.connected(virtualTop, indexOf(i, j));
+        int index = indexOf(i, j);
+        return (status[index] & OPEN) != 0
+            && (status[uf.find(index)] & TOP) != 0;
     }
 
     // does the system percolate?
     public boolean percolates() {
-        return percolation.connected(virtualTop, virtualBottom);
+        return percolates;
     }
 
     // open site (row i, column j) if it is not already
     public void open(int i, int j) {
-        if (isOpen(i, j))
+        openSite(indexOf(i, j));
+    }
+
+    /* Open the site at a row-major array index (see indexOf) without bounds
+    checking. Package-private so trial loops that already hold valid indices
+    can skip the (row, col) round trip.
+    */
+    void openSite(int index) {
+        if ((status[index] & OPEN) != 0)
             return;
-        int index = indexOf(i, j);
+        mark(index, (byte) 0);
+        connectNeighbors(index);
+    }
 
-        open[index] = true;
+    // open every site in sites, given as row-major indices (row - 1) * N +
+    // (col - 1); all indices are checked before any site is opened
+    public void openAll(int[] sites) {
+        for (int site: sites)
+            if (site < 0 || site >= status.length)
+                throw new IndexOutOfBoundsException(
+                        site + " out of bounds for " + N + "^2 grid.");
+        for (int site: sites)
+            if ((status[site] & OPEN) == 0)
+                mark(site, PENDING);
+        for (int site: sites)
+            settle(site);
+    }
 
-        if (i == 1) {
-            percolation.union(virtualTop, index);
-            fullness.union(virtualTop, index);
+    // open the sites of row i whose columns are set in columns, bit j - 1
+    // standing for column j
+    public void openRow(int i, BitSet columns) {
+        int first = indexOf(i, 1);
+        if (columns.length() > N)
+            throw new IndexOutOfBoundsException(
+                    "Column " + columns.length() + " out of bounds "
+                    + "for " + N + "^2 grid.");
+        for (int c = columns.nextSetBit(0); c >= 0; c = columns.nextSetBit(c + 1))
+            if ((status[first + c] & OPEN) == 0)
+                mark(first + c, PENDING);
+        for (int c = columns.nextSetBit(0); c >= 0; c = columns.nextSetBit(c + 1))
+            settle(first + c);
+    }
+
+    /* Bulk opens happen in two passes: first every new site is marked open
+    and PENDING, then each is settled, i.e. unioned with its open neighbors
+    that are already settled. Every pair of adjacent open sites is then
+    unioned exactly once, by whichever of the two is settled last.
+    */
+    private void settle(int index) {
+        if ((status[index] & PENDING) == 0)
+            return;
+        status[index] &= ~PENDING;
+        connectNeighbors(index);
+    }
+
+    // Mark a blocked site open, with the row bits of its own component.
+    private void mark(int index, byte extra) {
+        byte flags = (byte) (OPEN | extra);
+        if (index < N)
+            flags |= TOP;
+        if (index >= status.length - N)
+            flags |= BOTTOM;
+        status[index] = flags;
+        if (PercolationMetrics.ENABLED)
+            metrics.opened(index);
+        if ((flags & (TOP | BOTTOM)) == (TOP | BOTTOM)) // N == 1
+            setPercolates();
+    }
+
+    private void connectNeighbors(int index) {
+        int col = index % N;
+        if (index < status.length - N)
+            connect(index, index + N);
+        if (index >= N)
+            connect(index, index - N);
+        if (col < N - 1)
+            connect(index, index + 1);
+        if (col > 0)
+            connect(index, index - 1);
+    }
+
+    // is the site at a row-major array index open? (unchecked)
+    boolean isOpenSite(int index) {
+        return (status[index] & OPEN) != 0;
+    }
+
+    // root of the component containing the site at index (unchecked)
+    int root(int index) {
+        return uf.find(index);
+    }
+
+    /* Union the open site at index with neighbor if neighbor is open (and
+    settled), merging the TOP/BOTTOM bits of both components onto the
+    surviving root.
+    */
+    private void connect(int index, int neighbor) {
+        if ((status[neighbor] & (OPEN | PENDING)) != OPEN)
+            return;
+        int a = uf.find(index);
+        int b = uf.find(neighbor);
+        if (a == b)
+            return;
+        byte flags = (byte) (status[a] | status[b]);
+        int root = uf.link(a, b);
+        status[root] = flags;
+        if ((flags & (TOP | BOTTOM)) == (TOP | BOTTOM))
+            setPercolates();
+    }
+
+    private void setPercolates() {
+        percolates = true;
+        if (PercolationMetrics.ENABLED)
+            metrics.percolated();
+    }
+
+    /* Write this grid to file, replacing it, for load() to restore. The
+    snapshot is written to a temporary file beside it, forced to disk and
+    then moved over file, so a crash leaves either the old snapshot or the
+    new one. The header goes in last, so a temporary file cut short never
+    passes for a snapshot either.
+    */
+    public void save(Path file) throws IOException {
+        long sites = status.length;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            copyBytes(channel, FileChannel.MapMode.READ_WRITE, HEADER_BYTES,
+                    status);
+            copyInts(channel, FileChannel.MapMode.READ_WRITE,
+                    HEADER_BYTES + sites, uf.parents());
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(N)
+                .putInt(percolates ? 1 : 0);
+            header.flip();
+            while (header.hasRemaining())
+                channel.write(header, header.position());
+            channel.force(true);
         }
-        if (i == N)
-            percolation.union(virtualBottom, index);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
 
-        if (i < N  && isOpen(i + 1, j)) {
-            percolation.union(indexOf(i + 1, j), index);
-            fullness.union(indexOf(i + 1, j), index);
+    // the grid saved in file by save()
+    public static Percolation load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(HEADER_BYTES, channel.size()));
+            if (header.remaining() < HEADER_BYTES
+                    || header.getInt() != SNAPSHOT_MAGIC)
+                throw new IOException(file + " is not a percolation snapshot");
+            if (header.getInt() != SNAPSHOT_VERSION)
+                throw new IOException(file + ": unknown snapshot version");
+            int N = header.getInt();
+            boolean percolates = header.getInt() != 0;
+            long sites = (long) N * N;
+            if (N <= 0 || N > MAX_N
+                    || channel.size() != HEADER_BYTES + 5 * sites)
+                throw new IOException(file + ": truncated or corrupt snapshot");
+            byte[] status = new byte[(int) sites];
+            int[] parent = new int[(int) sites];
+            copyBytes(channel, FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    status);
+            copyInts(channel, FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + sites, parent);
+            if (!isForest(parent))
+                throw new IOException(file + ": corrupt union-find");
+            return new Percolation(N, status, new SiteUnionFind(parent),
+                    percolates);
         }
-        if (i > 1 && isOpen(i - 1, j)) {
-            percolation.union(indexOf(i - 1, j), index);
-            fullness.union(indexOf(i - 1, j), index);
+    }
+
+    /* Is parent a forest in SiteUnionFind's encoding, every path ending at
+    a root? Union by rank keeps every tree shallower than its root's rank,
+    which is below 32, and path halving only makes trees shallower, so a
+    longer path means a cycle; a find on it would never return.
+    */
+    private static boolean isForest(int[] parent) {
+        for (int p = 0; p < parent.length; p++) {
+            int up = parent[p];
+            for (int depth = 0; up >= 0; depth++) {
+                if (up >= parent.length || depth == 32)
+                    return false;
+                up = parent[up];
+            }
+            if (-1 - up >= 32)
+                return false;
         }
+        return true;
+    }
 
-        if (j < N && isOpen(i, j + 1)) {
-            percolation.union(indexOf(i, j + 1), index);
-            fullness.union(indexOf(i, j + 1), index);
+    /* Copy array to (READ_WRITE) or from (READ_ONLY) the file starting at
+    offset, one mapped window at a time. Written windows are forced to disk,
+    which FileChannel.force doesn't promise for mapped writes.
+    */
+    private static void copyBytes(FileChannel channel,
+            FileChannel.MapMode mode, long offset, byte[] array)
+            throws IOException {
+        for (int done = 0; done < array.length; ) {
+            int length = Math.min(WINDOW, array.length - done);
+            MappedByteBuffer window = channel.map(mode, offset + done, length);
+            if (mode == FileChannel.MapMode.READ_ONLY)
+                window.get(array, done, length);
+            else {
+                window.put(array, done, length);
+                window.force();
+            }
+            done += length;
         }
-        if (j > 1 && isOpen(i, j - 1)) {
-            percolation.union(indexOf(i, j - 1), index);
-            fullness.union(indexOf(i, j - 1), index);
+    }
+
+    private static void copyInts(FileChannel channel,
+            FileChannel.MapMode mode, long offset, int[] array)
+            throws IOException {
+        for (int done = 0; done < array.length; ) {
+            int length = Math.min(WINDOW / 4, array.length - done);
+            MappedByteBuffer window = channel.map(mode, offset + 4L * done,
+                    4L * length);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            if (mode == FileChannel.MapMode.READ_ONLY)
+                window.asIntBuffer().get(array, done, length);
+            else {
+                window.asIntBuffer().put(array, done, length);
+                window.force();
+            }
+            done += length;
         }
     }
 
@@ -113,6 +385,129 @@ public class Percolation {
         return true;
     }
 
+    // Opening a bottom-row site that is only connected to the top through
+    // the bottom row must not make it full.
+    private static boolean testNoBackwash() {
+        Percolation tested = new Percolation(3);
+        tested.open(1, 1);
+        tested.open(2, 1);
+        tested.open(3, 1);
+        tested.open(3, 3);
+        if (!tested.percolates() || !tested.isFull(3, 1)) {
+            System.err.println("Expected percolation through column 1");
+            return false;
+        }
+        if (tested.isFull(3, 3)) {
+            System.err.println("Backwash into (3, 3)");
+            return false;
+        }
+        return true;
+    }
+
+    // A reset grid must behave like a new one.
+    private static boolean testReset() {
+        Percolation tested = new Percolation(2);
+        tested.open(1, 1);
+        tested.open(2, 1);
+        tested.reset();
+        if (tested.isOpen(1, 1) || tested.percolates()) {
+            System.err.println("State survived reset");
+            return false;
+        }
+        tested.open(1, 2);
+        tested.open(2, 2);
+        if (!tested.percolates() || tested.isFull(2, 1)) {
+            System.err.println("Wrong state after reset");
+            return false;
+        }
+        return true;
+    }
+
+    // Bulk loading must agree with opening one site at a time.
+    private static boolean testBulkOpen(int N, int[][] openSites) {
+        Percolation tested = new Percolation(N);
+        for (int[] openSite: openSites)
+            tested.open(openSite[0], openSite[1]);
+        int[] indices = new int[openSites.length];
+        for (int k = 0; k < openSites.length; k++)
+            indices[k] = (openSites[k][0] - 1) * N + openSites[k][1] - 1;
+        Percolation bulk = new Percolation(N);
+        bulk.openAll(indices);
+        Percolation rows = new Percolation(N);
+        for (int i = 1; i <= N; i++) {
+            BitSet columns = new BitSet(N);
+            for (int[] openSite: openSites)
+                if (openSite[0] == i)
+                    columns.set(openSite[1] - 1);
+            rows.openRow(i, columns);
+        }
+        for (int i = 1; i <= N; i++)
+            for (int j = 1; j <= N; j++)
+                if (bulk.isOpen(i, j) != tested.isOpen(i, j)
+                        || rows.isOpen(i, j) != tested.isOpen(i, j)
+                        || bulk.isFull(i, j) != tested.isFull(i, j)
+                        || rows.isFull(i, j) != tested.isFull(i, j)) {
+                    System.err.println("Bulk open disagrees at " + i + ", " + j);
+                    return false;
+                }
+        if (bulk.percolates() != tested.percolates()
+                || rows.percolates() != tested.percolates()) {
+            System.err.println("Bulk open disagrees on percolation");
+            return false;
+        }
+        return true;
+    }
+
+    // A loaded snapshot must behave exactly like the grid that was saved.
+    private static boolean testSnapshot() {
+        try {
+            Path file = Files.createTempFile("percolation", ".snap");
+            try {
+                Percolation saved = new Percolation(3);
+                saved.open(1, 1);
+                saved.open(2, 1);
+                saved.open(3, 3);
+                saved.save(file);
+                Percolation loaded = load(file);
+                loaded.open(3, 1);
+                saved.open(3, 1);
+                for (int i = 1; i <= 3; i++)
+                    for (int j = 1; j <= 3; j++)
+                        if (loaded.isFull(i, j) != saved.isFull(i, j)) {
+                            System.err.println("Snapshot differs at " + i + ", " + j);
+                            return false;
+                        }
+                if (!loaded.percolates() || loaded.isFull(3, 3)) {
+                    System.err.println("Wrong state after load");
+                    return false;
+                }
+
+                // Zeroed parents, as a torn write would leave them, make
+                // site 0 its own parent; load must refuse them.
+                try (FileChannel channel = FileChannel.open(file,
+                        StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.allocate(4 * 9),
+                            HEADER_BYTES + 9);
+                }
+                try {
+                    load(file);
+                    System.err.println("Loaded a corrupt snapshot");
+                    return false;
+                }
+                catch (IOException expected) {
+                }
+            }
+            finally {
+                Files.delete(file);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Snapshot failed: " + e);
+            return false;
+        }
+        return true;
+    }
+
     private static boolean testConstructorThrows(int arg, boolean expectation) {
         boolean exceptionCaught = false;
         try {
@@ -151,9 +546,33 @@ public class Percolation {
         if (testPercolates(4, bad, false))
             passes++;
 
+        total++;
+        if (testPercolates(1, new int[][] {{1, 1}}, true))
+            passes++;
+
+        total++;
+        if (testNoBackwash())
+            passes++;
+
+        total++;
+        if (testReset())
+            passes++;
+
+        total++;
+        if (testBulkOpen(4, works) && testBulkOpen(4, bad))
+            passes++;
+
+        total++;
+        if (testSnapshot())
+            passes++;
+
         total++;
         if (testConstructorThrows(0x10000, true))
             passes++;
+
+        total++;
+        if (testConstructorThrows(MAX_N + 1, true))
+            passes++;
         System.err.println("Tests: " + passes + "/" + total);
     }
 }
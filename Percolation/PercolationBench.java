@@ -0,0 +1,234 @@
+/******************************************************************************
+ * Compilation: $ javac PercolationBench.java
+ * Execution: $ java -Xmx4g PercolationBench [name-filter]
+ *
+ * Microbenchmarks for Percolation and PercolationStats. Each benchmark is
+ * warmed up, then measured over several iterations; the report gives the
+ * mean time per operation with a 99.9% confidence half-width, and the
+ * bytes allocated per operation (the figure the JMH gc profiler calls
+ * gc.alloc.rate.norm) by the benchmarking thread and any pool threads
+ * doing its work.
+ *
+ * The classes here live in the default package, which JMH's generator
+ * refuses, so this is a small self-contained harness in the same spirit.
+ ******************************************************************************/
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+public class PercolationBench {
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+    // Minimum time per measured iteration.
+    private static final long ITERATION_NANOS = 200_000_000L;
+    private static final double[] FILLS = {0.1, 0.3, 0.5, 0.6, 0.7};
+    private static final int[] SIZES = {64, 256, 1024, 4096};
+    private static final int[] TRIALS = {10, 100, 1000};
+
+    // Results of benchmarked calls go here so the JIT can't drop them.
+    private static volatile long sink;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Worker threads of the pools made by pool().
+    private static final List<Thread> WORKERS =
+        new CopyOnWriteArrayList<Thread>();
+
+    // One invocation of a benchmark. Only run() is timed; it returns the
+    // number of operations it did.
+    private interface Body {
+        default void setup() { }
+        long run();
+    }
+
+    private static void report(String name, String filter, Body body) {
+        if (filter != null && !name.contains(filter))
+            return;
+        for (int i = 0; i < WARMUP; i++)
+            iteration(body);
+        double[] nanosPerOp = new double[ITERATIONS];
+        double bytesPerOp = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            double[] result = iteration(body);
+            nanosPerOp[i] = result[0];
+            bytesPerOp += result[1] / ITERATIONS;
+        }
+        double mean = 0;
+        for (double x: nanosPerOp)
+            mean += x / ITERATIONS;
+        double var = 0;
+        for (double x: nanosPerOp)
+            var += (x - mean) * (x - mean) / (ITERATIONS - 1);
+        // Student's t, 99.9%, 9 degrees of freedom.
+        double error = 4.781 * Math.sqrt(var / ITERATIONS);
+        System.out.printf("%-36s %14.1f +- %10.1f ns/op %12.1f B/op%n",
+                name, mean, error, bytesPerOp);
+    }
+
+    // Invoke body until ITERATION_NANOS pass; return {ns/op, bytes/op}.
+    private static double[] iteration(Body body) {
+        long ops = 0;
+        long timed = 0;
+        long bytes = allocated();
+        long start = System.nanoTime();
+        do {
+            body.setup();
+            long before = System.nanoTime();
+            ops += body.run();
+            timed += System.nanoTime() - before;
+        } while (System.nanoTime() - start < ITERATION_NANOS);
+        bytes = allocated() - bytes;
+        return new double[] {(double) timed / ops, (double) bytes / ops};
+    }
+
+    /* Bytes allocated so far by this thread and the workers of pool(). The
+    JDK only reports allocation for live threads, so those workers are
+    kept alive for the whole run, and the count for one started
+    mid-iteration simply begins at zero.
+    */
+    private static long allocated() {
+        long[] ids = new long[WORKERS.size() + 1];
+        ids[0] = Thread.currentThread().getId();
+        for (int k = 1; k < ids.length; k++)
+            ids[k] = WORKERS.get(k - 1).getId();
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(ids))
+            if (bytes > 0)
+                total += bytes;
+        return total;
+    }
+
+    // Pool for PercolationStats benchmarks that records its workers and
+    // never retires them, so allocated() can see all they allocate.
+    private static ForkJoinPool pool(int threads) {
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool
+                .defaultForkJoinWorkerThreadFactory.newThread(pool);
+            WORKERS.add(worker);
+            return worker;
+        };
+        return new ForkJoinPool(threads, factory, null, false, threads,
+                threads, 1, null, Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+
+    private static int[] permutation(int n, SplittableRandom random) {
+        int[] sites = new int[n];
+        for (int k = 0; k < n; k++)
+            sites[k] = k;
+        for (int k = n - 1; k > 0; k--) {
+            int j = random.nextInt(k + 1);
+            int swap = sites[k];
+            sites[k] = sites[j];
+            sites[j] = swap;
+        }
+        return sites;
+    }
+
+    // open(i, j) of one percent of the sites, on a grid already filled to
+    // fill by an untimed setup.
+    private static void openAtFill(String filter, final int N,
+            final double fill) {
+        final Percolation p = new Percolation(N);
+        final int[] sites = permutation(N*N, new SplittableRandom(N));
+        final int start = (int) (fill * N * N);
+        final int[] prefix = Arrays.copyOf(sites, start);
+        final int batch = Math.max(1, N * N / 100);
+        report("open N=" + N + " fill=" + fill, filter, new Body() {
+            public void setup() {
+                p.reset();
+                p.openAll(prefix);
+            }
+            public long run() {
+                for (int k = start; k < start + batch; k++)
+                    p.open(sites[k] / N + 1, sites[k] % N + 1);
+                return batch;
+            }
+        });
+    }
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : null;
+        final int N = 1024;
+
+        for (double fill: FILLS)
+            openAtFill(filter, N, fill);
+
+        final Percolation p = new Percolation(N);
+        p.openAll(Arrays.copyOf(
+                permutation(N*N, new SplittableRandom(1)), (int) (0.6 * N * N)));
+        final int[] queries = permutation(N*N, new SplittableRandom(2));
+        report("isFull N=" + N + " fill=0.6", filter, new Body() {
+            public long run() {
+                long full = 0;
+                for (int site: queries)
+                    if (p.isFull(site / N + 1, site % N + 1))
+                        full++;
+                sink = full;
+                return queries.length;
+            }
+        });
+        report("percolates N=" + N + " fill=0.6", filter, new Body() {
+            public long run() {
+                long yes = 0;
+                for (int k = 0; k < 1000; k++)
+                    if (p.percolates())
+                        yes++;
+                sink = yes;
+                return 1000;
+            }
+        });
+
+        for (final int n: SIZES) {
+            final Percolation grid = new Percolation(n);
+            final SplittableRandom random = new SplittableRandom(n);
+            final int[] sites = permutation(n*n, random);
+            report("trial N=" + n, filter, new Body() {
+                public void setup() {
+                    grid.reset();
+                }
+                public long run() {
+                    int k = 0;
+                    while (!grid.percolates()) {
+                        int j = k + random.nextInt(sites.length - k);
+                        int site = sites[j];
+                        sites[j] = sites[k];
+                        sites[k++] = site;
+                        grid.open(site / n + 1, site % n + 1);
+                    }
+                    sink = k;
+                    return 1;
+                }
+            });
+        }
+
+        // Per-trial cost of a whole experiment, run on one long-lived pool
+        // so its threads' allocation is counted; the cost of starting a
+        // pool is left out.
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ForkJoinPool pool = pool(threads);
+        try {
+            for (final int T: TRIALS) {
+                report("PercolationStats N=128 T=" + T + " threads=" + threads,
+                        filter, new Body() {
+                    private long seed;
+                    public long run() {
+                        PercolationStats stats =
+                            new PercolationStats(128, T, seed++, pool);
+                        sink = Double.doubleToLongBits(stats.mean());
+                        return T;
+                    }
+                });
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/******************************************************************************
+ * Compilation: $ javac PercolationMetrics.java
+ *
+ * Optional instrumentation of a Percolation grid and its union-find, off
+ * unless the JVM is started with -Dpercolation.metrics=true. Every hook is
+ * guarded by the static final ENABLED, so when it is off the JIT removes
+ * the hooks entirely.
+ *
+ * When on, each Percolation keeps one of these (see Percolation.metrics())
+ * counting unions, finds and find path lengths, tracking cluster sizes and
+ * the largest cluster as sites open, and noting how many sites were open
+ * when the grid first percolated. The same figures are emitted as the JFR
+ * events percolation.Percolated and percolation.ClusterGrowth.
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class PercolationMetrics {
+
+    static final boolean ENABLED = Boolean.getBoolean("percolation.metrics");
+
+    // Longest find path with its own histogram bucket; longer ones share
+    // the last bucket.
+    private static final int MAX_PATH = 32;
+
+    private final int N;
+    // Size of the cluster rooted at each site; stale for non-roots.
+    private final int[] size;
+    private long unions;
+    private long finds;
+    private final long[] pathLengths = new long[MAX_PATH + 1];
+    private long sitesOpened;
+    private int largest;
+    // growth[k] is sitesOpened when the largest cluster first reached 2^k.
+    private final long[] growth = new long[32];
+    private long openedAtPercolation = -1;
+
+    PercolationMetrics(int N) {
+        this.N = N;
+        size = new int[N*N];
+    }
+
+    // Hooks, called by Percolation and SiteUnionFind.
+
+    void opened(int site) {
+        sitesOpened++;
+        size[site] = 1;
+        grew(1);
+    }
+
+    void linked(int a, int b, int root) {
+        unions++;
+        size[root] = size[a] + size[b];
+        grew(size[root]);
+    }
+
+    void found(int pathLength) {
+        finds++;
+        pathLengths[Math.min(pathLength, MAX_PATH)]++;
+    }
+
+    void percolated() {
+        if (openedAtPercolation >= 0)
+            return;
+        openedAtPercolation = sitesOpened;
+        Percolated event = new Percolated();
+        if (event.shouldCommit()) {
+            event.gridSize = N;
+            event.sitesOpened = sitesOpened;
+            event.largestCluster = largest;
+            event.unions = unions;
+            event.finds = finds;
+            event.meanFindPath = meanFindPath();
+            event.commit();
+        }
+    }
+
+    // Count an open site of a grid restored from a snapshot.
+    void restored(int root) {
+        sitesOpened++;
+        size[root]++;
+        grew(size[root]);
+    }
+
+    void reset() {
+        unions = finds = sitesOpened = 0;
+        largest = 0;
+        openedAtPercolation = -1;
+        Arrays.fill(pathLengths, 0);
+        Arrays.fill(growth, 0);
+    }
+
+    private void grew(int cluster) {
+        if (cluster <= largest)
+            return;
+        int from = 32 - Integer.numberOfLeadingZeros(largest);
+        int to = 32 - Integer.numberOfLeadingZeros(cluster);
+        largest = cluster;
+        for (int k = from; k < to; k++) {
+            growth[k] = sitesOpened;
+            ClusterGrowth event = new ClusterGrowth();
+            if (event.shouldCommit()) {
+                event.gridSize = N;
+                event.sitesOpened = sitesOpened;
+                event.largestCluster = cluster;
+                event.commit();
+            }
+        }
+    }
+
+    // Queries.
+
+    // number of unions of two distinct clusters
+    public long unions() {
+        return unions;
+    }
+
+    // number of find operations
+    public long finds() {
+        return finds;
+    }
+
+    // histogram of find path lengths: entry k counts finds that followed k
+    // parent links; the last entry counts all longer paths too
+    public long[] findPathHistogram() {
+        return pathLengths.clone();
+    }
+
+    // mean number of parent links followed per find
+    public double meanFindPath() {
+        double total = 0;
+        for (int k = 0; k <= MAX_PATH; k++)
+            total += (double) k * pathLengths[k];
+        return finds == 0 ? 0 : total / finds;
+    }
+
+    // number of sites opened so far
+    public long sitesOpened() {
+        return sitesOpened;
+    }
+
+    // size of the largest cluster
+    public int largestCluster() {
+        return largest;
+    }
+
+    // entry k is the number of open sites when the largest cluster first
+    // reached 2^k sites, for each 2^k it has reached
+    public long[] largestClusterGrowth() {
+        int reached = 32 - Integer.numberOfLeadingZeros(largest);
+        return Arrays.copyOf(growth, reached);
+    }
+
+    // number of open sites when the grid first percolated, or -1
+    public long sitesOpenedAtPercolation() {
+        return openedAtPercolation;
+    }
+
+    public String toString() {
+        return "unions=" + unions + " finds=" + finds
+            + " meanFindPath=" + meanFindPath() + " sitesOpened=" + sitesOpened
+            + " largestCluster=" + largest
+            + " sitesOpenedAtPercolation=" + openedAtPercolation;
+    }
+
+    @Name("percolation.Percolated")
+    @Label("Grid Percolated")
+    @Category("Percolation")
+    @Description("A Percolation grid percolated for the first time")
+    static class Percolated extends Event {
+        @Label("Grid Size")
+        int gridSize;
+        @Label("Sites Opened")
+        long sitesOpened;
+        @Label("Largest Cluster")
+        int largestCluster;
+        @Label("Unions")
+        long unions;
+        @Label("Finds")
+        long finds;
+        @Label("Mean Find Path")
+        double meanFindPath;
+    }
+
+    @Name("percolation.ClusterGrowth")
+    @Label("Largest Cluster Doubled")
+    @Category("Percolation")
+    @Description("The largest cluster of a Percolation grid reached the "
+            + "next power of two")
+    static class ClusterGrowth extends Event {
+        @Label("Grid Size")
+        int gridSize;
+        @Label("Sites Opened")
+        long sitesOpened;
+        @Label("Largest Cluster")
+        int largestCluster;
+    }
+}
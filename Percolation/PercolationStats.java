@@ -3,61 +3,292 @@
  * Written: 2012-08-26
  *
  * Compilation: $ javac PercolationStats.java
- * Running an experiment: $ java PercolationStats
+ * Running an experiment: $ java PercolationStats N T [seed [threads]]
+ *                        $ java PercolationStats N epsilon [seed [threads]]
  *
  * Data type to model physical percolation (say of water through concrete).
+ * The second form (epsilon written with a decimal point, e.g. 0.0005) runs
+ * trials until the 95% confidence interval is narrower than +/- epsilon.
  ******************************************************************************/
 
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
 public class PercolationStats {
     private static final double Z95 = 1.96;
+    // Trials run by one fork-join leaf. The split tree depends only on T and
+    // this constant, never on the number of threads, which is what makes the
+    // per-trial random streams (and so the results) reproducible.
+    private static final int LEAF_TRIALS = 4;
+    // Trials run before trusting the sample standard deviation to size the
+    // next batch of an until-precision experiment.
+    private static final int MIN_TRIALS = 32;
+    // Each thread's Workspace, kept between experiments of the same N.
+    private static final ThreadLocal<Workspace> WORKSPACE =
+        new ThreadLocal<Workspace>();
     private final int N;
-    private double[] results;
+    private Moments results = new Moments();
 
     // perform T independent computational experiments on an N-by-N grid
     public PercolationStats(int N, int T) {
+        this(N, T, new SplittableRandom().nextLong(), 1);
+    }
+
+    // perform T independent experiments on an N-by-N grid using the given
+    // number of threads; the same seed gives the same results for any number
+    // of threads
+    public PercolationStats(int N, int T, long seed, int threads) {
+        this(N, positive(T), 0.0, seed, threads);
+    }
+
+    // T, checked before any pool is made for it
+    private static int positive(int T) {
+        if (T <= 0)
+            throw new IllegalArgumentException("Nonnegative arguments");
+        return T;
+    }
+
+    // perform experiments on an N-by-N grid until the 95% confidence interval
+    // is mean() +/- at most epsilon; reproducible like the fixed-T version
+    public static PercolationStats untilPrecision(int N, double epsilon,
+            long seed, int threads) {
+        if (!(epsilon > 0))
+            throw new IllegalArgumentException("epsilon must be positive");
+        return new PercolationStats(N, 0, epsilon, seed, threads);
+    }
+
+    // As PercolationStats(N, T, seed, threads), but running the trials on
+    // pool, which is left running, so that PercolationBench can account for
+    // the work of its threads.
+    PercolationStats(int N, int T, long seed, ForkJoinPool pool) {
         if (N <= 0 || T <= 0)
             throw new IllegalArgumentException("Nonnegative arguments");
-        int i, j, n;
-        Percolation p;
         this.N = N;
-        results = new double[T];
-        for (int t = 0; t < T; t++) {
-            n = 0;
-            p = new Percolation(N);
-            while (!p.percolates()) {
-                do {
-                    i = StdRandom.uniform(1, N + 1);
-                    j = StdRandom.uniform(1, N + 1);
-                } while(p.isOpen(i, j));
-                p.open(i, j);
-                n++;
+        run(pool, T, 0.0, seed);
+    }
+
+    private PercolationStats(int N, int T, double epsilon, long seed,
+            int threads) {
+        if (N <= 0 || T < 0 || threads <= 0)
+            throw new IllegalArgumentException("Nonnegative arguments");
+        this.N = N;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            run(pool, T, epsilon, seed);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    private void run(ForkJoinPool pool, int T, double epsilon, long seed) {
+        if (epsilon == 0) {
+            if (T > 0)
+                results = pool.invoke(new Trials(0, T,
+                            new SplittableRandom(seed)));
+        }
+        else
+            untilPrecision(pool, epsilon, new SplittableRandom(seed));
+        // The calling thread may have helped run trials; don't keep its grid
+        // alive. Pool threads keep theirs for the pool's next experiment.
+        WORKSPACE.remove();
+    }
+
+    /* Run batches of trials until halfWidth() <= epsilon. Each batch is sized
+    from the current standard deviation to just reach epsilon, but at most
+    doubles the trial count so one noisy early estimate can't overshoot far.
+    Batches draw their generators from master in order, so the sequence of
+    batches, like everything else, depends only on the seed.
+    */
+    private void untilPrecision(ForkJoinPool pool, double epsilon,
+            SplittableRandom master) {
+        long batch = MIN_TRIALS;
+        while (true) {
+            Moments more = pool.invoke(
+                    new Trials(0, (int) batch, master.split()));
+            results = results.merge(more);
+            long count = results.count;
+            if (count >= MIN_TRIALS && halfWidth() <= epsilon)
+                return;
+            double s = Z95 * stddev() / epsilon;
+            long needed = (long) Math.ceil(s * s) - count;
+            batch = Math.max(LEAF_TRIALS,
+                    Math.min(needed, Math.min(count, Integer.MAX_VALUE)));
+        }
+    }
+
+    /* Streaming count, mean and sum of squared deviations (Welford). Two
+    accumulators over disjoint samples merge exactly (Chan et al.), so each
+    fork-join task returns one and they are combined up the task tree.
+    */
+    private static class Moments {
+        private long count;
+        private double mean;
+        private double m2;
+
+        void add(double x) {
+            count++;
+            double delta = x - mean;
+            mean += delta / count;
+            m2 += delta * (x - mean);
+        }
+
+        Moments merge(Moments that) {
+            if (that.count == 0)
+                return this;
+            if (count == 0)
+                return that;
+            long n = count + that.count;
+            double delta = that.mean - mean;
+            mean += delta * that.count / n;
+            m2 += that.m2 + delta * delta * ((double) count * that.count / n);
+            count = n;
+            return this;
+        }
+
+        double variance() {
+            if (count <= 1)
+                return Double.NaN;
+            return m2 / (count - 1);
+        }
+    }
+
+    /* A grid and a site array for the trials one thread runs, so that after
+    its first trial a thread allocates nothing but the small task and
+    Moments objects of each leaf.
+    */
+    private static class Workspace {
+        private final Percolation grid;
+        private final int[] sites;
+        private boolean used;
+
+        Workspace(int N) {
+            grid = new Percolation(N);
+            sites = new int[N*N];
+        }
+
+        // Block every site and put sites back in index order. trial() draws
+        // its permutation from sites as they are, so starting each trial
+        // from the same order is what keeps results independent of which
+        // thread ran which trials before.
+        void clear() {
+            if (used)
+                grid.reset();
+            used = true;
+            for (int k = 0; k < sites.length; k++)
+                sites[k] = k;
+        }
+    }
+
+    // This thread's Workspace for N-by-N grids.
+    private Workspace workspace() {
+        Workspace work = WORKSPACE.get();
+        if (work == null || work.sites.length != N*N) {
+            work = new Workspace(N);
+            WORKSPACE.set(work);
+        }
+        return work;
+    }
+
+    /* Runs trials [lo, hi). Halves of the range get independent generators
+    via split(), so every trial's random stream is fixed by the master seed
+    and its position in the (thread-count independent) tree.
+    */
+    private class Trials extends RecursiveTask<Moments> {
+        private static final long serialVersionUID = 1L;
+        private final int lo, hi;
+        private final SplittableRandom random;
+
+        Trials(int lo, int hi, SplittableRandom random) {
+            this.lo = lo;
+            this.hi = hi;
+            this.random = random;
+        }
+
+        @Override
+        protected Moments compute() {
+            if (hi - lo <= LEAF_TRIALS) {
+                Moments moments = new Moments();
+                Workspace work = workspace();
+                for (int t = lo; t < hi; t++) {
+                    work.clear();
+                    moments.add(trial(work.grid, random, work.sites));
+                }
+                return moments;
             }
-            results[t] = ((double) n) / (N*N);
+            int mid = (lo + hi) >>> 1;
+            Trials right = new Trials(mid, hi, random.split());
+            Trials left = new Trials(lo, mid, random);
+            invokeAll(left, right);
+            return left.join().merge(right.join());
         }
     }
 
+    /* Open sites of the blocked grid p in the order of a uniformly random
+    permutation of sites until the system percolates; return the open
+    fraction.
+
+    The permutation is drawn lazily, one Fisher-Yates step per opened site,
+    so no random numbers are spent on sites that are already open and the
+    shuffle stops as soon as the grid percolates. Any starting order of
+    sites gives a uniform permutation, but Workspace.clear() restores the
+    same one every time so the trial is fixed by its random stream alone.
+    */
+    private double trial(Percolation p, SplittableRandom random, int[] sites) {
+        int n = 0;
+        int remaining = sites.length;
+        while (!p.percolates()) {
+            int k = n + random.nextInt(remaining--);
+            int site = sites[k];
+            sites[k] = sites[n];
+            sites[n] = site;
+            p.openSite(site);
+            n++;
+        }
+        return ((double) n) / (N*N);
+    }
+
+    // number of trials performed
+    public long trials() {
+        return results.count;
+    }
+
     // sample mean of percolation threshold
     public double mean() {
-        return StdStats.mean(results);
+        return results.mean;
     }
 
     // sample standard deviation of percolation threshold
     public double stddev() {
-        if (results.length <= 1)
-            return Double.NaN;
-        return StdStats.stddev(results);
+        return Math.sqrt(results.variance());
+    }
+
+    // half the width of the 95% confidence interval
+    private double halfWidth() {
+        return Z95 * stddev() / Math.sqrt(results.count);
     }
 
     private double ci(int side) {
-        return mean() + side * (Z95 * stddev()) / Math.sqrt(results.length);
+        return mean() + side * halfWidth();
     }
 
     public static void main(String[] args) {
-        int N, T;
+        int N;
         PercolationStats p;
         N = Integer.parseInt(args[0]);
-        T = Integer.parseInt(args[1]);
-        p = new PercolationStats(N, T);
+        long seed = new SplittableRandom().nextLong();
+        int threads = 1;
+        if (args.length > 2)
+            seed = Long.parseLong(args[2]);
+        if (args.length > 3)
+            threads = Integer.parseInt(args[3]);
+        if (args[1].indexOf('.') >= 0)
+            p = untilPrecision(N, Double.parseDouble(args[1]), seed, threads);
+        else
+            p = new PercolationStats(N, Integer.parseInt(args[1]), seed,
+                    threads);
+        System.out.println("trials                  = " + p.trials());
         System.out.println("mean                    = " + p.mean());
         System.out.println("stddev                  = " + p.stddev());
         System.out.println("95% confidence interval = " + p.ci(-1) + ", " + p.ci(1));
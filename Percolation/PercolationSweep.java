@@ -0,0 +1,278 @@
+/******************************************************************************
+ * Compilation: $ javac PercolationSweep.java
+ * Running a sweep: $ java PercolationSweep N T [seed]
+ * Testing: $ java PercolationSweep
+ *
+ * Newman-Ziff sweep: each trial opens all N^2 sites of a Percolation in a
+ * random order and records, after every opened site, whether the system
+ * percolates, the size of the largest cluster and the mean cluster size.
+ * One pass per trial gives these quantities for every occupancy n at once;
+ * convolving with the binomial distribution turns them into curves over the
+ * site-open probability p.
+ ******************************************************************************/
+
+import java.util.SplittableRandom;
+
+public class PercolationSweep {
+    private final int N;
+    private final int T;
+    // Indexed by the number of open sites, 0..N^2, summed over trials.
+    private final long[] percolating;
+    private final long[] largest;
+    private final double[] meanCluster;
+
+    // perform T sweeps over an N-by-N grid
+    public PercolationSweep(int N, int T, long seed) {
+        if (N <= 0 || T <= 0)
+            throw new IllegalArgumentException("Nonnegative arguments");
+        this.N = N;
+        this.T = T;
+        int sites = N*N;
+        percolating = new long[sites + 1];
+        largest = new long[sites + 1];
+        meanCluster = new double[sites + 1];
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] order = new int[sites];
+        for (int k = 0; k < sites; k++)
+            order[k] = k;
+        int[] size = new int[sites];
+        Percolation p = new Percolation(N);
+        for (int t = 0; t < T; t++) {
+            if (t > 0)
+                p.reset();
+            sweep(p, random, order, size);
+        }
+    }
+
+    /* One trial on the blocked grid p. size[r] is the number of sites in
+    the cluster whose root is r; entries for non-roots are stale and never
+    read. sumSquares is the sum over clusters of size^2, so sumSquares / n
+    is the expected size of the cluster containing a randomly chosen open
+    site.
+    */
+    private void sweep(Percolation p, SplittableRandom random, int[] order,
+            int[] size) {
+        int[] roots = new int[4];
+        int biggest = 0;
+        long sumSquares = 0;
+        for (int n = 1; n <= order.length; n++) {
+            int k = n - 1 + random.nextInt(order.length - n + 1);
+            int site = order[k];
+            order[k] = order[n - 1];
+            order[n - 1] = site;
+
+            int distinct = 0;
+            int col = site % N;
+            if (site >= N)
+                distinct = addRoot(p, site - N, roots, distinct);
+            if (site < order.length - N)
+                distinct = addRoot(p, site + N, roots, distinct);
+            if (col > 0)
+                distinct = addRoot(p, site - 1, roots, distinct);
+            if (col < N - 1)
+                distinct = addRoot(p, site + 1, roots, distinct);
+
+            int merged = 1;
+            for (int r = 0; r < distinct; r++) {
+                long s = size[roots[r]];
+                sumSquares -= s * s;
+                merged += s;
+            }
+            sumSquares += (long) merged * merged;
+            p.openSite(site);
+            size[p.root(site)] = merged;
+            if (merged > biggest)
+                biggest = merged;
+
+            if (p.percolates())
+                percolating[n]++;
+            largest[n] += biggest;
+            meanCluster[n] += (double) sumSquares / n;
+        }
+    }
+
+    // Record the root of neighbor in roots if it is open and not yet seen.
+    private static int addRoot(Percolation p, int neighbor, int[] roots,
+            int distinct) {
+        if (!p.isOpenSite(neighbor))
+            return distinct;
+        int root = p.root(neighbor);
+        for (int r = 0; r < distinct; r++)
+            if (roots[r] == root)
+                return distinct;
+        roots[distinct] = root;
+        return distinct + 1;
+    }
+
+    private void checkOccupancy(int n) {
+        if (n < 0 || n > N*N)
+            throw new IndexOutOfBoundsException(
+                    n + " open sites out of bounds for " + N + "^2 grid.");
+    }
+
+    // fraction of trials that percolate with exactly n open sites
+    public double percolationProbability(int n) {
+        checkOccupancy(n);
+        return (double) percolating[n] / T;
+    }
+
+    // mean size of the largest cluster with exactly n open sites
+    public double largestCluster(int n) {
+        checkOccupancy(n);
+        return (double) largest[n] / T;
+    }
+
+    // mean size of the cluster containing a random open site, n open sites
+    public double meanClusterSize(int n) {
+        checkOccupancy(n);
+        return meanCluster[n] / T;
+    }
+
+    // probability that the system percolates when each site is open with
+    // probability p
+    public double percolationProbabilityAt(double p) {
+        return convolve(percolating, p) / T;
+    }
+
+    // expected largest cluster size when each site is open with probability p
+    public double largestClusterAt(double p) {
+        return convolve(largest, p) / T;
+    }
+
+    // expected mean cluster size when each site is open with probability p
+    public double meanClusterSizeAt(double p) {
+        return convolve(meanCluster, p) / T;
+    }
+
+    private static double convolve(long[] q, double p) {
+        double[] d = new double[q.length];
+        for (int n = 0; n < q.length; n++)
+            d[n] = q[n];
+        return convolve(d, p);
+    }
+
+    /* Sum over n of Binomial(M, p)(n) * q[n], M = q.length - 1.
+
+    The binomial weights are built outward from the mode using the ratio
+    B(n+1)/B(n) = (M - n)/(n + 1) * p/(1 - p) and normalized at the end,
+    which never overflows or underflows where it matters. Terms are dropped
+    once they fall below one ulp of the weight at the mode.
+    */
+    private static double convolve(double[] q, double p) {
+        if (p < 0 || p > 1)
+            throw new IllegalArgumentException("p must be in [0, 1]");
+        int M = q.length - 1;
+        if (p == 0)
+            return q[0];
+        if (p == 1)
+            return q[M];
+        int mode = (int) Math.floor(p * (M + 1));
+        if (mode > M)
+            mode = M;
+        double odds = p / (1 - p);
+        double sum = q[mode];
+        double total = 1;
+        double b = 1;
+        for (int n = mode; n < M && b > Math.ulp(1.0); n++) {
+            b *= (double) (M - n) / (n + 1) * odds;
+            sum += b * q[n + 1];
+            total += b;
+        }
+        b = 1;
+        for (int n = mode; n > 0 && b > Math.ulp(1.0); n--) {
+            b *= (double) n / (M - n + 1) / odds;
+            sum += b * q[n - 1];
+            total += b;
+        }
+        return sum / total;
+    }
+
+    /* A one-trial sweep must agree, at every occupancy, with a Percolation
+    opened in the same order (the sweep's shuffle replayed from the seed)
+    and with cluster sizes counted from scratch by flood fill.
+    */
+    private static boolean testAgreement(int N, long seed) {
+        PercolationSweep sweep = new PercolationSweep(N, 1, seed);
+        SplittableRandom random = new SplittableRandom(seed);
+        int sites = N*N;
+        int[] order = new int[sites];
+        for (int k = 0; k < sites; k++)
+            order[k] = k;
+        Percolation p = new Percolation(N);
+        boolean[] open = new boolean[sites];
+        for (int n = 1; n <= sites; n++) {
+            int k = n - 1 + random.nextInt(sites - n + 1);
+            int site = order[k];
+            order[k] = order[n - 1];
+            order[n - 1] = site;
+            p.open(site / N + 1, site % N + 1);
+            open[site] = true;
+
+            long sumSquares = 0;
+            int biggest = 0;
+            boolean[] seen = new boolean[sites];
+            int[] stack = new int[sites];
+            for (int start = 0; start < sites; start++) {
+                if (!open[start] || seen[start])
+                    continue;
+                int size = 0;
+                int top = 0;
+                stack[top++] = start;
+                seen[start] = true;
+                while (top > 0) {
+                    int s = stack[--top];
+                    size++;
+                    int[] next = {s - N, s + N,
+                                  s % N > 0 ? s - 1 : -1,
+                                  s % N < N - 1 ? s + 1 : -1};
+                    for (int t: next)
+                        if (t >= 0 && t < sites && open[t] && !seen[t]) {
+                            seen[t] = true;
+                            stack[top++] = t;
+                        }
+                }
+                sumSquares += (long) size * size;
+                biggest = Math.max(biggest, size);
+            }
+            if (sweep.percolationProbability(n) != (p.percolates() ? 1 : 0)
+                    || sweep.largestCluster(n) != biggest
+                    || sweep.meanClusterSize(n) != (double) sumSquares / n) {
+                System.err.println("N = " + N + ", seed = " + seed
+                        + ": sweep disagrees at " + n + " open sites");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* With no arguments, run the tests; with N and T, print the curves of
+    a sweep.
+    */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            int passes = 0;
+            int total = 0;
+            for (int N: new int[] {1, 2, 5, 12})
+                for (long seed = 0; seed < 5; seed++) {
+                    total++;
+                    if (testAgreement(N, seed))
+                        passes++;
+                }
+            System.err.println("Tests: " + passes + "/" + total);
+            return;
+        }
+        int N = Integer.parseInt(args[0]);
+        int T = Integer.parseInt(args[1]);
+        long seed = new SplittableRandom().nextLong();
+        if (args.length > 2)
+            seed = Long.parseLong(args[2]);
+        PercolationSweep sweep = new PercolationSweep(N, T, seed);
+        System.out.println("p       P(p)     largest      mean cluster");
+        for (int k = 0; k <= 100; k += 2) {
+            double p = k / 100.0;
+            System.out.printf("%.2f  %.5f  %11.2f  %12.2f%n", p,
+                    sweep.percolationProbabilityAt(p),
+                    sweep.largestClusterAt(p), sweep.meanClusterSizeAt(p));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/******************************************************************************
+ * Compilation: $ javac SiteUnionFind.java
+ *
+ * Union-find over the sites of a Percolation grid: union by rank and find
+ * with path halving, in a single int[].
+ *
+ * parent[i] is the parent of site i, or -1 - rank if i is a root. Ranks
+ * never exceed log2 of the number of sites, so they easily fit in the root
+ * entry and cost no memory of their own; a fresh forest, all roots of rank
+ * 0, is a single bulk fill with -1.
+ ******************************************************************************/
+
+import java.util.Arrays;
+
+class SiteUnionFind {
+
+    private final int[] parent;
+    // Only ever set when PercolationMetrics.ENABLED.
+    private PercolationMetrics metrics;
+
+    // n singleton sets, 0 through n - 1
+    SiteUnionFind(int n) {
+        parent = new int[n];
+        Arrays.fill(parent, -1);
+    }
+
+    // a forest adopting parent, which must be in the encoding above
+    SiteUnionFind(int[] parent) {
+        this.parent = parent;
+    }
+
+    // the backing array, for writing snapshots
+    int[] parents() {
+        return parent;
+    }
+
+    // report finds and links to metrics from now on
+    void observe(PercolationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // make every site a singleton again
+    void reset() {
+        Arrays.fill(parent, -1);
+    }
+
+    // Root of p's set. Kept tiny so it inlines at call sites; most sites
+    // queried are roots or one step from one.
+    int find(int p) {
+        if (PercolationMetrics.ENABLED && metrics != null)
+            return findCounted(p);
+        int up = parent[p];
+        if (up < 0)
+            return p;
+        if (parent[up] < 0)
+            return up;
+        return findHalving(p);
+    }
+
+    // Path halving: point every other site on the path at its grandparent.
+    private int findHalving(int p) {
+        while (true) {
+            int up = parent[p];
+            if (up < 0)
+                return p;
+            int grand = parent[up];
+            if (grand < 0)
+                return up;
+            parent[p] = grand;
+            p = grand;
+        }
+    }
+
+    // findHalving, also reporting how many parent links the path had.
+    private int findCounted(int p) {
+        int links = 0;
+        while (true) {
+            int up = parent[p];
+            if (up < 0)
+                break;
+            links++;
+            int grand = parent[up];
+            if (grand < 0) {
+                p = up;
+                break;
+            }
+            links++;
+            parent[p] = grand;
+            p = grand;
+        }
+        metrics.found(links);
+        return p;
+    }
+
+    // Link two distinct roots by rank; return the root of the union.
+    int link(int a, int b) {
+        int rankA = -1 - parent[a];
+        int rankB = -1 - parent[b];
+        int root;
+        if (rankA < rankB) {
+            parent[a] = b;
+            root = b;
+        }
+        else {
+            if (rankA == rankB)
+                parent[a]--;
+            parent[b] = a;
+            root = a;
+        }
+        if (PercolationMetrics.ENABLED && metrics != null)
+            metrics.linked(a, b, root);
+        return root;
+    }
+}
@@ -0,0 +1,218 @@
+/*************************************************************************
+ *  Compilation:  javac BatchSolver.java
+ *  Execution:    java BatchSolver [options] filename1.txt filename2.txt ...
+ *  Dependencies: Solver.java ResultCache.java SearchBudget.java In.java
+ *
+ *  PuzzleChecker for large batches: solves the boards in the files on a
+ *  work-stealing pool and prints "filename: moves" lines in input order,
+ *  as soon as each line and those before it are ready. Boards already
+ *  solved, in this run or a cached one, aren't solved again; a board
+ *  that is being solved when another file gives it again is solved once,
+ *  the second file waiting for the answer. A board that goes over its
+ *  budget is reported and skipped.
+ *
+ *  Options:
+ *    -threads k       solve k boards at a time (default: processors, or
+ *                     1 for PARALLEL_A_STAR, which spreads each board
+ *                     over every processor and so allows no more)
+ *    -algorithm A     a Solver.Algorithm (default: IDA_STAR)
+ *    -heuristic h     manhattan, linear or pdb (default: linear); pdb
+ *                     is only built for 3x3 and 4x4 boards, and others
+ *                     use linear
+ *    -nodes n         give up on a board after n expansions
+ *    -millis t        give up on a board after t milliseconds
+ *    -cache file      load cached results from file and save them back
+ *    -capacity c      cache at most c boards (default: 1000000)
+ *
+ *  % java BatchSolver -threads 4 -millis 10000 -cache moves.txt puzzle*.txt
+ *  puzzle00.txt: 0
+ *  puzzle01.txt: 1
+ *  ...
+ *  puzzle3x3-unsolvable.txt: -1
+ *  ...
+ *
+ *************************************************************************/
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class BatchSolver {
+
+    private final Solver.Algorithm algorithm;
+    private final String heuristic;
+    private final long maxNodes, maxMillis;
+    private final ResultCache cache;
+    // Heuristic for each dimension seen, made once and shared by all
+    // threads (pattern databases are large).
+    private final Map<Integer, Heuristic> heuristics =
+        new ConcurrentHashMap<Integer, Heuristic>();
+    // Answer to come for each board (by cache key) being solved now.
+    private final Map<String, CompletableFuture<Integer>> inFlight =
+        new ConcurrentHashMap<String, CompletableFuture<Integer>>();
+
+    // solver of boards with the given algorithm and named heuristic (see
+    // Heuristic.named()), giving up on a board after maxNodes expansions
+    // or maxMillis milliseconds, with results kept in cache
+    BatchSolver(Solver.Algorithm algorithm, String heuristic, long maxNodes,
+            long maxMillis, ResultCache cache) {
+        this.algorithm = algorithm;
+        this.heuristic = heuristic;
+        this.maxNodes = maxNodes;
+        this.maxMillis = maxMillis;
+        this.cache = cache;
+    }
+
+    // Solve the board in each file on threads threads, printing a line for
+    // each to out in the order of files.
+    void solve(String[] files, int threads, PrintStream out) {
+        if (algorithm == Solver.Algorithm.PARALLEL_A_STAR && threads > 1)
+            throw new IllegalArgumentException("PARALLEL_A_STAR already uses "
+                    + "every processor for one board; solve with 1 thread");
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<String>> lines =
+                new ArrayList<ForkJoinTask<String>>();
+            for (String file : files)
+                lines.add(pool.submit(() -> file + ": " + solve(file)));
+            for (ForkJoinTask<String> line : lines)
+                out.println(line.join());
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // Minimum moves for the board in file, or why there is no answer.
+    private String solve(String file) {
+        try {
+            In in = new In(file);
+            int N = in.readInt();
+            int[][] tiles = new int[N][N];
+            for (int i = 0; i < N; i++)
+                for (int j = 0; j < N; j++)
+                    tiles[i][j] = in.readInt();
+            Board initial = new Board(tiles);
+            String key = ResultCache.key(initial);
+            Integer cached = cache.get(key);
+            if (cached != null)
+                return cached.toString();
+            return Integer.toString(moves(initial, key));
+        }
+        catch (SearchBudget.ExhaustedException e) {
+            return "over budget (" + e.getMessage() + ")";
+        }
+        catch (RuntimeException e) {
+            return "error (" + e + ")";
+        }
+    }
+
+    /* Minimum moves for initial, whose cache key is key. Only the first
+    thread to ask for a board solves it; any other that asks meanwhile
+    waits for that answer, or gets the same exception.
+    */
+    private int moves(Board initial, String key) {
+        CompletableFuture<Integer> answer = new CompletableFuture<Integer>();
+        CompletableFuture<Integer> first = inFlight.putIfAbsent(key, answer);
+        if (first == null) {
+            try {
+                // Another thread may have solved, cached and let go of the
+                // board since the caller looked in the cache.
+                Integer cached = cache.get(key);
+                int moves;
+                if (cached != null)
+                    moves = cached;
+                // Solver answers these without searching; don't build a
+                // heuristic (perhaps a pattern database) just for them.
+                else if (!initial.isSolvable())
+                    moves = -1;
+                else if (initial.isGoal())
+                    moves = 0;
+                else
+                    moves = new Solver(initial, algorithm,
+                            heuristic(initial.dimension()),
+                            new SearchBudget(maxNodes, maxMillis)).moves();
+                cache.put(key, moves);
+                answer.complete(moves);
+                return moves;
+            }
+            catch (Throwable e) {
+                answer.completeExceptionally(e);
+                throw e;
+            }
+            finally {
+                inFlight.remove(key);
+            }
+        }
+        try {
+            return first.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private Heuristic heuristic(int N) {
+        return heuristics.computeIfAbsent(N, n -> {
+            try {
+                return Heuristic.named(heuristic, n);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = 0;
+        Solver.Algorithm algorithm = Solver.Algorithm.IDA_STAR;
+        String heuristic = "linear";
+        long maxNodes = Long.MAX_VALUE;
+        long maxMillis = Long.MAX_VALUE;
+        Path cacheFile = null;
+        int capacity = 1000000;
+        int k = 0;
+        for (; k < args.length && args[k].startsWith("-"); k += 2) {
+            if (k + 1 == args.length)
+                throw new IllegalArgumentException("Option " + args[k]
+                        + " needs a value");
+            String value = args[k + 1];
+            switch (args[k]) {
+                case "-threads":   threads = Integer.parseInt(value);   break;
+                case "-algorithm": algorithm = Solver.Algorithm.valueOf(value); break;
+                case "-heuristic": heuristic = value;                   break;
+                case "-nodes":     maxNodes = Long.parseLong(value);    break;
+                case "-millis":    maxMillis = Long.parseLong(value);   break;
+                case "-cache":     cacheFile = Paths.get(value);        break;
+                case "-capacity":  capacity = Integer.parseInt(value);  break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[k]);
+            }
+        }
+        if (threads == 0)
+            threads = algorithm == Solver.Algorithm.PARALLEL_A_STAR ? 1
+                : Runtime.getRuntime().availableProcessors();
+
+        ResultCache cache = new ResultCache(capacity);
+        if (cacheFile != null)
+            cache.load(cacheFile);
+        new BatchSolver(algorithm, heuristic, maxNodes, maxMillis, cache)
+            .solve(Arrays.copyOfRange(args, k, args.length), threads,
+                    System.out);
+        if (cacheFile != null)
+            cache.save(cacheFile);
+    }
+}
@@ -0,0 +1,161 @@
+/*************************************************************************
+ *  Compilation:  javac BidirectionalSearch.java
+ *
+ *  Bidirectional front-to-end A* for Solver: one A* forward from the
+ *  initial board to the goal, one backward from the goal to the initial
+ *  board (moves are reversible, so that is an ordinary search with the
+ *  roles swapped), each guided by an estimate of its distance to its own
+ *  far end. Each side keeps the fewest moves it knows to every board it
+ *  has generated in a TranspositionTable keyed by Board.key(), and
+ *  generating a board the other side already holds joins two half paths
+ *  into a complete one, the best so far of length mu.
+ *
+ *  Neither side stops at the first meeting. Every path still to be found
+ *  passes through a node open on each side, so min f on either side's
+ *  open list is a lower bound on it, and once mu is no more than the
+ *  larger of the two bounds the best path found is optimal. The side
+ *  with the smaller open list is expanded next (Pohl's cardinality
+ *  criterion), which keeps the two frontiers, and memory, balanced.
+ *
+ *  Open nodes don't link back to their paths, so a board no longer open
+ *  costs only its table entry. The solution is rebuilt at the end by
+ *  walking each side's table down from the meeting board, one move and
+ *  one fewer known moves at a time.
+ *
+ *  The forward side uses the Solver's heuristic; the backward side uses
+ *  Manhattan distance to the initial board, the one estimate that works
+ *  toward an arbitrary target.
+ *
+ *************************************************************************/
+
+class BidirectionalSearch {
+
+    private final Heuristic heuristic;
+    private final SearchBudget budget;
+    // positions() of the initial board, the backward side's target
+    private final int[] start;
+    private final Side forward, backward;
+    // Work arrays for Board.estimate on the forward side.
+    private final int[] flat, scratch;
+    // Length of the best path found so far, and where its halves meet.
+    private int mu = Integer.MAX_VALUE;
+    private Board meeting;
+
+    BidirectionalSearch(Board initial, Heuristic heuristic,
+            SearchBudget budget) {
+        this.heuristic = heuristic;
+        this.budget = budget;
+        start = initial.positions();
+        flat = new int[start.length];
+        scratch = new int[start.length];
+        forward = new Side(initial, true);
+        backward = new Side(Board.goal(initial.dimension()), false);
+    }
+
+    /* A shortest path from the initial board to the goal, as a chain of
+    nodes ending at the goal. The initial board must be solvable and not
+    the goal.
+    */
+    SearchNode solve() {
+        while (mu > Math.max(forward.bound(), backward.bound())) {
+            if (forward.open.size() <= backward.open.size())
+                forward.expand(backward);
+            else
+                backward.expand(forward);
+        }
+        // The forward half from the initial board to the meeting board,
+        // then the backward half from there to the goal.
+        Board[] first = forward.pathTo(meeting);
+        Board[] second = backward.pathTo(meeting);
+        SearchNode path = null;
+        for (Board board : first)
+            path = new SearchNode(board, path, 0);
+        for (int k = second.length - 2; k >= 0; k--)
+            path = new SearchNode(second[k], path, 0);
+        return path;
+    }
+
+    /* One direction of the search: an A* open list whose entries go stale
+    when a shorter path to their board is found, and the fewest moves
+    known to every board generated.
+    */
+    private class Side {
+        private final boolean toGoal;
+        private final BucketQueue open = new BucketQueue();
+        private final TranspositionTable best = new TranspositionTable();
+
+        Side(Board from, boolean toGoal) {
+            this.toGoal = toGoal;
+            open.insert(new SearchNode(from, 0, estimate(from)));
+            best.put(from.key(), 0);
+        }
+
+        // Lower bound on the moves from board to this side's far end.
+        int estimate(Board board) {
+            if (toGoal)
+                return board.estimate(heuristic);
+            return board.manhattanTo(start);
+        }
+
+        // The same for board, one move from the node from.
+        int estimate(Board board, SearchNode from) {
+            if (toGoal)
+                return board.estimate(heuristic, from.board, from.estimate(),
+                        flat, scratch);
+            return board.manhattanTo(start);
+        }
+
+        // Least priority on the open list, dropping stale entries; more
+        // than any path when the list is empty.
+        int bound() {
+            while (!open.isEmpty()
+                    && best.get(open.min().board.key()) != open.min().moves)
+                open.delMin();
+            return open.isEmpty() ? Integer.MAX_VALUE : open.min().priority;
+        }
+
+        // Expand the least open node, which bound() has left fresh,
+        // recording any path that meets other.
+        void expand(Side other) {
+            SearchNode least = open.delMin();
+            budget.expand();
+            int moves = least.moves + 1;
+            for (Board neighbor : least.board.neighbors()) {
+                long key = neighbor.key();
+                int known = best.get(key);
+                if (known >= 0 && known <= moves)
+                    continue;
+                best.put(key, moves);
+                open.insert(new SearchNode(neighbor, moves,
+                            estimate(neighbor, least)));
+                int meet = other.best.get(key);
+                if (meet >= 0 && moves + meet < mu) {
+                    mu = moves + meet;
+                    meeting = neighbor;
+                }
+            }
+        }
+
+        /* The boards of a shortest path from this side's first board to
+        board, first board first, where board is on the best path found.
+        Each board on the path was generated from a neighbor this side
+        knows one fewer moves to, and none is known in fewer, or there
+        would be a shorter path than mu.
+        */
+        Board[] pathTo(Board board) {
+            int moves = best.get(board.key());
+            Board[] path = new Board[moves + 1];
+            path[moves] = board;
+            for (int k = moves; k > 0; k--) {
+                for (Board neighbor : path[k].neighbors()) {
+                    if (best.get(neighbor.key()) == k - 1) {
+                        path[k - 1] = neighbor;
+                        break;
+                    }
+                }
+                assert path[k - 1] != null;
+            }
+            return path;
+        }
+    }
+}
@@ -1,45 +1,200 @@
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class Board {
 
-    private final short[][] blocks;
+    // Boards up to this dimension are packed into a single long, 4 bits per
+    // block, block at (row, col) in bits 4 * (row * dim + col) and up.
+    private static final int MAX_PACKED_DIM = 4;
+    private static final long NIBBLE = 0xF;
+
     private final int dim;
-    private int cachedManhattan = -1;
+    // Exactly one of these is in use: packed when dim <= MAX_PACKED_DIM,
+    // otherwise the blocks in row-major order.
+    private final long packed;
+    private final short[] blocks;
+    // Position of the blank and the Manhattan distance, computed once for a
+    // board read in and derived in O(1) for every board made from it.
+    private final int blank;
+    private final int manhattan;
+    // Zobrist hash: the xor of zobrist(block, pos) over all blocks, which a
+    // swap updates with four xors.
+    private final long zobrist;
 
     // construct a board from an N-by-N array of blocks
     // (where blocks[i][j] = block in row i, column j)
     public Board(int[][] blocks) {
-        this.blocks = copySquareArray(blocks);
         dim = blocks.length;
+        long p = 0;
+        short[] flat = new short[dim * dim];
+        for (int row = 0; row < dim; row++) {
+            assert blocks[row].length == dim;
+            for (int col = 0; col < dim; col++)
+                // Assignment guarantees dim < 128, so casting is safe.
+                flat[row * dim + col] = (short) blocks[row][col];
+        }
+        if (dim <= MAX_PACKED_DIM) {
+            for (int pos = 0; pos < flat.length; pos++)
+                p |= (long) flat[pos] << (4 * pos);
+            this.blocks = null;
+        }
+        else
+            this.blocks = flat;
+        packed = p;
+        int zero = 0;
+        int sum = 0;
+        long hash = 0;
+        for (int pos = 0; pos < flat.length; pos++) {
+            if (flat[pos] == 0)
+                zero = pos;
+            sum += distance(flat[pos], pos);
+            hash ^= zobrist(flat[pos], pos);
+        }
+        blank = zero;
+        manhattan = sum;
+        zobrist = hash;
     }
 
-    private Board(short[][] blocks) {
-        this.blocks = copySquareArray(blocks);
-        dim = blocks.length;
+    private Board(int dim, long packed, short[] blocks, int blank,
+            int manhattan, long zobrist) {
+        this.dim = dim;
+        this.packed = packed;
+        this.blocks = blocks;
+        this.blank = blank;
+        this.manhattan = manhattan;
+        this.zobrist = zobrist;
     }
 
-    // Copy a square array.
-    private short[][] copySquareArray(int[][] original) {
-        int len = original.length;
-        short[][] copy = new short[len][len];
-        for (int row = 0; row < len; row++) {
-            assert original[row].length == len;
-            for (int col = 0; col < len; col++)
-                // Assignment guarantees dim < 128, so casting is safe.
-                copy[row][col] = (short) original[row][col];
+    /* Zobrist key of block at pos. Boards can be up to 127 x 127, too many
+    (block, pos) pairs for a table of random keys, so each key is instead a
+    strong 64-bit mix (SplitMix64's finalizer) of the pair.
+    */
+    private static long zobrist(int block, int pos) {
+        long z = ((long) block << 32 | pos) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /* A 64-bit key identifying this board among boards of its dimension,
+    for TranspositionTable: the packed blocks themselves when they fit,
+    which is exact, and otherwise the Zobrist hash, which two different
+    boards share with probability 2^-64.
+    */
+    long key() {
+        return blocks == null ? packed : zobrist;
+    }
+
+    // The blocks in row-major order, 0 for the blank, in a new array.
+    int[] blocks() {
+        int[] flat = new int[dim * dim];
+        for (int pos = 0; pos < flat.length; pos++)
+            flat[pos] = blockAt(pos);
+        return flat;
+    }
+
+    // heuristic's estimate for this board; Board keeps its Manhattan
+    // distance, so that one needs no array
+    int estimate(Heuristic heuristic) {
+        if (heuristic == Heuristic.MANHATTAN)
+            return manhattan;
+        return heuristic.estimate(blocks(), dim);
+    }
+
+    /* heuristic's estimate for this board, which is one move from previous,
+    whose estimate was estimate: Heuristic.update over the blocks copied
+    into flat. flat and scratch are the caller's, dimension()^2 ints each,
+    so searches can reuse them and a generated board allocates nothing.
+    */
+    int estimate(Heuristic heuristic, Board previous, int estimate,
+            int[] flat, int[] scratch) {
+        if (heuristic == Heuristic.MANHATTAN)
+            return manhattan;
+        for (int pos = 0; pos < flat.length; pos++)
+            flat[pos] = blockAt(pos);
+        // The block now where previous had its blank came from our blank.
+        return heuristic.update(flat, dim, estimate, blank, previous.blank,
+                scratch);
+    }
+
+    // The goal board of dimension dim.
+    static Board goal(int dim) {
+        int[][] blocks = new int[dim][dim];
+        for (int pos = 0; pos < dim * dim - 1; pos++)
+            blocks[pos / dim][pos % dim] = pos + 1;
+        return new Board(blocks);
+    }
+
+    // Position of each block: the inverse of blocks(), with the blank's
+    // position at index 0.
+    int[] positions() {
+        int[] where = new int[dim * dim];
+        for (int pos = 0; pos < where.length; pos++)
+            where[blockAt(pos)] = pos;
+        return where;
+    }
+
+    // Sum of the Manhattan distances of the blocks from their positions in
+    // the board whose positions() are where: a lower bound on the moves
+    // between the two boards.
+    int manhattanTo(int[] where) {
+        int sum = 0;
+        for (int pos = 0; pos < dim * dim; pos++) {
+            int block = blockAt(pos);
+            if (block != 0)
+                sum += Math.abs(pos / dim - where[block] / dim)
+                    + Math.abs(pos % dim - where[block] % dim);
         }
-        return copy;
+        return sum;
+    }
+
+    // The board made by sliding the block at row-major position pos, which
+    // must be next to the blank, into the blank.
+    Board slide(int pos) {
+        assert Math.abs(pos - blank) == dim
+            || Math.abs(pos - blank) == 1 && pos / dim == blank / dim;
+        return swap(blank, pos);
+    }
+
+    // Block at row-major position pos.
+    private int blockAt(int pos) {
+        if (blocks == null)
+            return (int) (packed >>> (4 * pos) & NIBBLE);
+        return blocks[pos];
+    }
+
+    // Manhattan distance of block from its goal position if it were at pos.
+    private int distance(int block, int pos) {
+        if (block == 0)
+            return 0;
+        // Because 0 is not at (0, 0).
+        int goal = block - 1;
+        return Math.abs(pos / dim - goal / dim)
+            + Math.abs(pos % dim - goal % dim);
     }
 
-    private short[][] copySquareArray(short[][] original) {
-        int len = original.length;
-        short[][] copy = new short[len][len];
-        for (int row = 0; row < len; row++) {
-            assert original[row].length == len;
-            for (int col = 0; col < len; col++)
-                copy[row][col] = original[row][col];
+    // The board with the blocks at positions a and b exchanged. Only those
+    // two blocks move, so the new Manhattan distance and blank position
+    // follow from this board's. With a packed board the exchange itself is
+    // two xors, since x ^ (x ^ y) == y.
+    private Board swap(int a, int b) {
+        int blockA = blockAt(a);
+        int blockB = blockAt(b);
+        int sum = manhattan - distance(blockA, a) - distance(blockB, b)
+            + distance(blockA, b) + distance(blockB, a);
+        int zero = blank == a ? b : blank == b ? a : blank;
+        long hash = zobrist ^ zobrist(blockA, a) ^ zobrist(blockB, b)
+            ^ zobrist(blockA, b) ^ zobrist(blockB, a);
+        if (blocks == null) {
+            long x = blockA ^ blockB;
+            return new Board(dim, packed ^ (x << (4 * a)) ^ (x << (4 * b)),
+                    null, zero, sum, hash);
         }
-        return copy;
+        short[] copy = blocks.clone();
+        copy[a] = (short) blockB;
+        copy[b] = (short) blockA;
+        return new Board(dim, 0, copy, zero, sum, hash);
     }
 
     // board dimension N
@@ -49,75 +204,75 @@ public class Board {
     // number of blocks out of place
     public int hamming() {
         int count = 0;
-        int expectation = 1;
-        for (int row = 0; row < dim; row++)
-            for (int col = 0; col < dim; col++)
-                if (blocks[row][col] != expectation++)
-                    count++;
-        // Subtract 1 for the empty block.
-        return count - 1;
+        for (int pos = 0; pos < dim * dim - 1; pos++)
+            if (blockAt(pos) != pos + 1)
+                count++;
+        return count;
     }
 
     // sum of Manhattan distances between blocks and goal
     public int manhattan() {
-        if (cachedManhattan >= 0)
-            return cachedManhattan;
-        int sum = 0;
-        int goalRow, goalCol;
-        int value = 0;
-        for (int row = 0; row < dim; row++) {
-            for (int col = 0; col < dim; col++) {
-                value = blocks[row][col];
-                if (value == 0)
-                    continue;
-                // Because 0 is not at (0, 0).
-                goalRow = (value - 1) / dim;
-                goalCol = (value - 1) % dim;
-                sum += Math.abs(row - goalRow) + Math.abs(col - goalCol);
-            }
-        }
-        cachedManhattan = sum;
-        return sum;
+        return manhattan;
     }
 
     // is this board the goal board?
     public boolean isGoal() {
-        if (blocks[dim - 1][dim - 1] != 0)
-            return false;
-        int value = 1;
-        for (int row = 0; row < dim; row++)
-            for (int col = 0; col < dim; col++)
-                if (blocks[row][col] != value++
-                        && (row != dim - 1 || col != dim - 1))
-                    return false;
+        if (blocks == null)
+            return packed == packedGoal(dim);
+        for (int pos = 0; pos < dim * dim - 1; pos++)
+            if (blocks[pos] != pos + 1)
+                return false;
         return true;
     }
 
+    // Packed goal board of dimension dim <= MAX_PACKED_DIM.
+    private static long packedGoal(int dim) {
+        long p = 0;
+        for (int pos = 0; pos < dim * dim - 1; pos++)
+            p |= (long) (pos + 1) << (4 * pos);
+        return p;
+    }
+
+    /* is this board solvable?
+
+    A move of the blank along a row leaves the order of the blocks, read in
+    row-major order without the blank, unchanged; a move along a column
+    carries one block past dim - 1 others. With dim odd that can't change
+    the parity of the number of inversions, so exactly the boards with as
+    many inversions as the goal, mod 2, are solvable. With dim even each
+    vertical move flips the parity and the blank's row together, so the
+    sum of the two is what is preserved.
+
+    Inversions are counted in O(N^2 log N) with a Fenwick tree over block
+    numbers, scanning from the end: each block is inverted with the
+    smaller blocks already seen.
+    */
+    public boolean isSolvable() {
+        int n = dim * dim;
+        int[] tree = new int[n];
+        long inversions = 0;
+        for (int pos = n - 1; pos >= 0; pos--) {
+            int block = blockAt(pos);
+            if (block == 0)
+                continue;
+            for (int i = block - 1; i > 0; i -= i & -i)
+                inversions += tree[i];
+            for (int i = block; i < n; i += i & -i)
+                tree[i]++;
+        }
+        if (dim % 2 == 1)
+            return inversions % 2 == 0;
+        return (inversions + blank / dim) % 2 == 1;
+    }
+
     // a board obtained by exchanging two adjacent blocks in the same row
     public Board twin() {
-        short[][] copy = copySquareArray(blocks);
         if (dim <= 1)
-            return new Board(copy);
-        // Find zero so that we don't exchange with the blank
-        // This looks like a O(dim^2) algorithm, but on average it should finish
-        // in O(1).
-        int row = 0;
-        int col = 0;
-        short value = 0;
-        short lastValue = blocks[0][0];
-        zerosearch:
-        for (row = 0; row < dim; row++) {
-            for (col = 0; col < dim; col++) {
-                value = blocks[row][col];
-                // Check col>0 because swap must occur on same row
-                if (value != 0 && lastValue != 0 && col > 0)
-                    break zerosearch;
-                lastValue = value;
-            }
-        }
-        copy[row][col] = lastValue;
-        copy[row][col - 1] = value;
-        return new Board(copy);
+            return this;
+        // The blank is in at most one of the first two rows, so the first
+        // two blocks of the other are both non-blank.
+        int row = blank / dim == 0 ? 1 : 0;
+        return swap(row * dim, row * dim + 1);
     }
 
     // does this board equal y?
@@ -126,45 +281,66 @@ public class Board {
         if (y == null) return false;
         if (y.getClass() != this.getClass()) return false;
         Board that = (Board) y;
-        if (this.blocks.length != that.blocks.length) return false;
-        for (int row = 0; row < dim; row++)
-            if (!Arrays.equals(this.blocks[row], that.blocks[row]))
-                return false;
-        return true;
+        return this.dim == that.dim && this.packed == that.packed
+            && Arrays.equals(this.blocks, that.blocks);
     }
 
-    private short[][] swap(short[][] array, int fromRow, int fromCol, int toRow,
-                         int toCol) {
-        short[][] copy = copySquareArray(array);
-        short tmp = copy[toRow][toCol];
-        copy[toRow][toCol] = copy[fromRow][fromCol];
-        copy[fromRow][fromCol] = tmp;
-        return copy;
+    public int hashCode() {
+        return Long.hashCode(zobrist);
     }
 
     // all neighboring boards
     public Iterable<Board> neighbors() {
-        Queue<Board> q = new Queue<Board>();
-        // Find zero
-        int row = 0;
-        int col = 0;
-        zerosearch:
-        for (row = 0; row < dim; row++) {
-            for (col = 0; col < dim; col++) {
-                if (blocks[row][col] == 0) {
-                    break zerosearch;
-                }
+        return new Iterable<Board>() {
+            public Iterator<Board> iterator() {
+                return new Neighbors();
+            }
+        };
+    }
+
+    // Boards made by sliding each block next to the blank into it, built
+    // one at a time as they are asked for.
+    private class Neighbors implements Iterator<Board> {
+        private int direction = -1;
+
+        Neighbors() {
+            advance();
+        }
+
+        // Move direction on to the next of up, down, left, right that stays
+        // on the board, or to 4 when there are none left.
+        private void advance() {
+            int row = blank / dim;
+            int col = blank % dim;
+            while (++direction < 4) {
+                if (direction == 0 && row > 0) return;
+                if (direction == 1 && row < dim - 1) return;
+                if (direction == 2 && col > 0) return;
+                if (direction == 3 && col < dim - 1) return;
+            }
+        }
+
+        public boolean hasNext() {
+            return direction < 4;
+        }
+
+        public Board next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int other;
+            switch (direction) {
+                case 0:  other = blank - dim; break;
+                case 1:  other = blank + dim; break;
+                case 2:  other = blank - 1;   break;
+                default: other = blank + 1;   break;
             }
+            advance();
+            return swap(blank, other);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
-        if (row > 0)
-            q.enqueue(new Board(swap(blocks, row, col, row - 1, col)));
-        if (row < dim - 1)
-            q.enqueue(new Board(swap(blocks, row, col, row + 1, col)));
-        if (col > 0)
-            q.enqueue(new Board(swap(blocks, row, col, row, col - 1)));
-        if (col < dim - 1)
-            q.enqueue(new Board(swap(blocks, row, col, row, col + 1)));
-        return q;
     }
 
     // string representation of the board (in the output format specified below)
@@ -173,7 +349,7 @@ public class Board {
         s.append(dim + "\n");
         for (int row = 0; row < dim; row++) {
             for (int col = 0; col < dim; col++) {
-                s.append(String.format("%2d ", blocks[row][col]));
+                s.append(String.format("%2d ", blockAt(row * dim + col)));
             }
             s.append("\n");
         }
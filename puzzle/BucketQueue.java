@@ -0,0 +1,80 @@
+/*************************************************************************
+ *  Compilation:  javac BucketQueue.java
+ *
+ *  Open list for Solver's A* searches. Priorities (moves + estimate) are
+ *  small non-negative ints, so instead of a binary heap the nodes go in
+ *  buckets indexed by priority and, within a priority, by estimate:
+ *  delMin() takes from the lowest priority and, to break ties, the lowest
+ *  estimate, i.e. the node nearest the goal. Each bucket is a LIFO stack
+ *  threaded through the nodes' next fields, so insert() allocates nothing
+ *  and both operations take O(1) time apart from the cursor scans, which
+ *  are bounded by the largest priority.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+class BucketQueue {
+
+    // heads[f][h] is the top of the stack of nodes with priority f and
+    // estimate h; rows are allocated as needed.
+    private SearchNode[][] heads = new SearchNode[64][];
+    // Nodes with each priority.
+    private int[] counts = new int[64];
+    // No node has priority below minF, nor, with priority f, estimate
+    // below minH[f].
+    private int[] minH = new int[64];
+    private int minF;
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void insert(SearchNode node) {
+        int f = node.priority;
+        int h = f - node.moves;
+        if (f >= heads.length) {
+            int length = Math.max(f + 1, 2 * heads.length);
+            heads = Arrays.copyOf(heads, length);
+            counts = Arrays.copyOf(counts, length);
+            minH = Arrays.copyOf(minH, length);
+        }
+        SearchNode[] row = heads[f];
+        if (row == null || h >= row.length)
+            row = heads[f] = Arrays.copyOf(row == null ? new SearchNode[0] : row,
+                    Math.max(h + 1, f + 1));
+        node.next = row[h];
+        row[h] = node;
+        if (counts[f]++ == 0 || h < minH[f])
+            minH[f] = h;
+        if (size++ == 0 || f < minF)
+            minF = f;
+    }
+
+    // node with least priority, and of those least estimate
+    SearchNode min() {
+        if (size == 0)
+            throw new NoSuchElementException("Priority queue underflow");
+        while (counts[minF] == 0)
+            minF++;
+        SearchNode[] row = heads[minF];
+        while (row[minH[minF]] == null)
+            minH[minF]++;
+        return row[minH[minF]];
+    }
+
+    SearchNode delMin() {
+        SearchNode node = min();
+        heads[minF][minH[minF]] = node.next;
+        node.next = null;
+        counts[minF]--;
+        size--;
+        return node;
+    }
+}
@@ -0,0 +1,80 @@
+/*************************************************************************
+ *  Compilation:  javac Heuristic.java
+ *
+ *  A lower bound on the number of moves needed to solve a board, for
+ *  Solver's searches. Boards are passed as their blocks in row-major
+ *  order with 0 for the blank, which is what IDA* moves around in place.
+ *
+ *  An estimate must never exceed the true number of moves. It need not
+ *  be consistent (change by at most one per move): Manhattan distance and
+ *  linear conflicts are, but pattern databases, which ignore where the
+ *  blank is, are not. Implementations must be safe to share between
+ *  threads.
+ *
+ *************************************************************************/
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+public interface Heuristic {
+
+    // sum of the Manhattan distances of the blocks from their goals
+    Heuristic MANHATTAN = new Manhattan();
+
+    // the heuristic called name ("manhattan", "linear" or "pdb") for
+    // N-by-N boards; "pdb" opens, building it first if need be, the
+    // default pattern database in puzzleNxN.pdb in the working directory;
+    // there are default patterns only for N = 3 and N = 4, so for other
+    // sizes "pdb" falls back to "linear"
+    static Heuristic named(String name, int N) throws IOException {
+        if (name.equals("manhattan"))
+            return MANHATTAN;
+        if (name.equals("linear") || name.equals("pdb") && N != 3 && N != 4)
+            return new LinearConflict();
+        if (name.equals("pdb"))
+            return PatternDatabase.open(
+                    Paths.get("puzzle" + N + "x" + N + ".pdb"), N);
+        throw new IllegalArgumentException("Unknown heuristic " + name);
+    }
+
+    // lower bound on the moves needed to solve the dim-by-dim board with
+    // these blocks
+    int estimate(int[] blocks, int dim);
+
+    // estimate(blocks, dim), given that the block now at to has just slid
+    // there from from (so blocks[from] is the blank) and that estimate was
+    // the value before the move; scratch is room for blocks.length ints
+    // that the caller doesn't need kept, so that update needn't allocate
+    default int update(int[] blocks, int dim, int estimate, int from, int to,
+            int[] scratch) {
+        return estimate(blocks, dim);
+    }
+
+    // Manhattan distance of block from its goal position if it were at pos.
+    static int distance(int block, int pos, int dim) {
+        if (block == 0)
+            return 0;
+        int goal = block - 1;
+        return Math.abs(pos / dim - goal / dim)
+            + Math.abs(pos % dim - goal % dim);
+    }
+
+    // Only the moved block's distance changes, so update() is O(1).
+    class Manhattan implements Heuristic {
+        private Manhattan() { }
+
+        public int estimate(int[] blocks, int dim) {
+            int sum = 0;
+            for (int pos = 0; pos < blocks.length; pos++)
+                sum += distance(blocks[pos], pos, dim);
+            return sum;
+        }
+
+        public int update(int[] blocks, int dim, int estimate, int from,
+                int to, int[] scratch) {
+            int block = blocks[to];
+            return estimate + distance(block, to, dim)
+                - distance(block, from, dim);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*************************************************************************
+ *  Compilation:  javac IDAStar.java
+ *
+ *  Iterative-deepening A* (Korf 1985) for Solver: a series of depth-first
+ *  searches, each cut off where moves + heuristic estimate exceeds a
+ *  bound, the bound rising to the least value that was cut off until a
+ *  search reaches the goal. The first goal found is then at minimum depth.
+ *
+ *  All searches run on one mutable array of blocks, moving the blank
+ *  forward and back in place, so memory is O(depth) and an expansion
+ *  allocates nothing. The price is that nothing is remembered between
+ *  searches or across transpositions, so boards get re-expanded.
+ *
+ *************************************************************************/
+
+class IDAStar {
+
+    // Returned by search() when it has reached the goal.
+    private static final int FOUND = -1;
+    private final int dim;
+    private final Heuristic heuristic;
+    private final SearchBudget budget;
+    private final int[] blocks;
+    // Row and column of position pos.
+    private final int[] row, col;
+    private int blank;
+    // heuristic's estimate for blocks, updated as they move
+    private int h;
+    // path[k] is the position the blank moved to on move k.
+    private int[] path;
+    // Passed to Heuristic.update, so that a move allocates nothing.
+    private final int[] scratch;
+
+    IDAStar(Board initial, Heuristic heuristic, SearchBudget budget) {
+        dim = initial.dimension();
+        this.heuristic = heuristic;
+        this.budget = budget;
+        blocks = initial.blocks();
+        h = initial.estimate(heuristic);
+        scratch = new int[blocks.length];
+        row = new int[blocks.length];
+        col = new int[blocks.length];
+        for (int pos = 0; pos < blocks.length; pos++) {
+            row[pos] = pos / dim;
+            col[pos] = pos % dim;
+            if (blocks[pos] == 0)
+                blank = pos;
+        }
+    }
+
+    /* Blank positions of a shortest solution, move by move. The board must
+    be solvable (see Board.isSolvable()): on any other, deepening never
+    ends.
+    */
+    int[] solve() {
+        int bound = h;
+        while (true) {
+            path = new int[bound];
+            int next = search(0, bound, -1);
+            if (next == FOUND)
+                return path;
+            bound = next;
+        }
+    }
+
+    /* Depth-first search below the current board, reached in g moves with
+    the blank previously at from. Returns FOUND, leaving path[0..g) as the
+    moves to the goal, or else the least f = g + h that exceeded bound.
+    */
+    private int search(int g, int bound, int from) {
+        int f = g + h;
+        if (f > bound)
+            return f;
+        if (h == 0 && isGoal())
+            return FOUND;
+        // A heuristic that is 0 short of the goal can bring us to the
+        // bound off it; every move from here exceeds the bound.
+        if (g == bound)
+            return bound + 1;
+        budget.expand();
+        int min = Integer.MAX_VALUE;
+        int here = blank;
+        for (int direction = 0; direction < 4; direction++) {
+            int to = neighbor(here, direction);
+            // Undoing the last move can't be on a shortest path.
+            if (to < 0 || to == from)
+                continue;
+            move(to);
+            path[g] = to;
+            int t = search(g + 1, bound, here);
+            move(here);
+            if (t == FOUND)
+                return FOUND;
+            if (t < min)
+                min = t;
+        }
+        return min;
+    }
+
+    // The position next to pos up, down, left or right, or -1 if off the
+    // board.
+    private int neighbor(int pos, int direction) {
+        switch (direction) {
+            case 0:  return row[pos] > 0       ? pos - dim : -1;
+            case 1:  return row[pos] < dim - 1 ? pos + dim : -1;
+            case 2:  return col[pos] > 0       ? pos - 1   : -1;
+            default: return col[pos] < dim - 1 ? pos + 1   : -1;
+        }
+    }
+
+    // Slide the block at pos into the blank.
+    private void move(int pos) {
+        int target = blank;
+        blocks[target] = blocks[pos];
+        blocks[pos] = 0;
+        blank = pos;
+        h = heuristic.update(blocks, dim, h, pos, target, scratch);
+    }
+
+    private boolean isGoal() {
+        for (int pos = 0; pos < blocks.length - 1; pos++)
+            if (blocks[pos] != pos + 1)
+                return false;
+        return true;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*************************************************************************
+ *  Compilation:  javac LinearConflict.java
+ *
+ *  Manhattan distance plus linear conflicts (Hansson, Mayer and Yung
+ *  1992). Blocks in their goal row are in conflict when their order in the
+ *  row is not their goal order: to pass each other, all but an increasing
+ *  subsequence of them must leave the row and come back, two moves each
+ *  that Manhattan distance doesn't count. The same goes for columns, and
+ *  the row and column extras add up because they are vertical and
+ *  horizontal moves respectively.
+ *
+ *  A move takes one block across one column (or row) boundary, so it can
+ *  change Manhattan distance by one and the conflicts of only the two
+ *  lines involved; update() rescans just those.
+ *
+ *************************************************************************/
+
+public class LinearConflict implements Heuristic {
+
+    public int estimate(int[] blocks, int dim) {
+        int[] scratch = new int[dim];
+        int sum = Heuristic.MANHATTAN.estimate(blocks, dim);
+        for (int line = 0; line < dim; line++) {
+            sum += 2 * removals(blocks, dim, line, false, -1, -1, scratch);
+            sum += 2 * removals(blocks, dim, line, true, -1, -1, scratch);
+        }
+        return sum;
+    }
+
+    public int update(int[] blocks, int dim, int estimate, int from, int to,
+            int[] scratch) {
+        int block = blocks[to];
+        estimate += Heuristic.distance(block, to, dim)
+            - Heuristic.distance(block, from, dim);
+        // A vertical move changes two rows, a horizontal one two columns.
+        boolean columns = Math.abs(to - from) != dim;
+        int lineFrom = columns ? from % dim : from / dim;
+        int lineTo = columns ? to % dim : to / dim;
+        estimate += 2 * (removals(blocks, dim, lineFrom, columns, -1, -1,
+                    scratch)
+                - removals(blocks, dim, lineFrom, columns, from, to, scratch)
+                + removals(blocks, dim, lineTo, columns, -1, -1, scratch)
+                - removals(blocks, dim, lineTo, columns, from, to, scratch));
+        return estimate;
+    }
+
+    /* The fewest blocks that must leave a row (or, if vertical, a column)
+    so that the blocks left whose goal is in it are in goal order: their
+    number less the length of the longest increasing subsequence of their
+    goal offsets, found by patience sorting into scratch. The blocks are
+    read as if those at a and b were exchanged, which lets update() see the
+    board from before a move without changing it.
+    */
+    private static int removals(int[] blocks, int dim, int line,
+            boolean vertical, int a, int b, int[] scratch) {
+        int count = 0;
+        int piles = 0;
+        for (int k = 0; k < dim; k++) {
+            int pos = vertical ? k * dim + line : line * dim + k;
+            int block = blocks[pos == a ? b : pos == b ? a : pos];
+            if (block == 0)
+                continue;
+            int goal = block - 1;
+            if ((vertical ? goal % dim : goal / dim) != line)
+                continue;
+            count++;
+            int offset = vertical ? goal / dim : goal % dim;
+            int lo = 0;
+            int hi = piles;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (scratch[mid] < offset) lo = mid + 1;
+                else                       hi = mid;
+            }
+            scratch[lo] = offset;
+            if (lo == piles)
+                piles++;
+        }
+        return count - piles;
+    }
+}
@@ -0,0 +1,252 @@
+/*************************************************************************
+ *  Compilation:  javac ParallelAStar.java
+ *
+ *  Hash-distributed A* (HDA*, Kishimoto, Fukunaga and Botea 2009) for
+ *  Solver. Every board has an owner among the worker threads, chosen by
+ *  its hash, and only the owner ever stores or expands it, so each worker
+ *  has a private open list and closed table that need no locking. A
+ *  worker expanding a node sends each child to the child's owner over a
+ *  lock-free queue.
+ *
+ *  Workers don't expand in global f order, so the first goal reached may
+ *  not be optimal. It becomes the incumbent, the best solution so far,
+ *  and nodes whose f is no less than the incumbent's length are dropped
+ *  from then on. The search ends when no node is left anywhere, in an open
+ *  list or in a queue, and then the incumbent is optimal: a node on a
+ *  shorter path would have had a smaller f and still be waiting.
+ *
+ *  To tell when that is, each worker counts the nodes it has sent and
+ *  received in plain fields and publishes the counts only when it runs
+ *  out of work, so no shared variable is written per node. A worker out
+ *  of work scans all the workers twice (Mattern's counting method). If
+ *  every worker was idle both times with the same counts, and the totals
+ *  sent and received agree, then nothing happened between the scans and
+ *  no node is in flight, so the search is over. Otherwise the worker
+ *  parks until a node is sent to it.
+ *
+ *************************************************************************/
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+class ParallelAStar {
+
+    // Longest an idle worker sleeps before checking for the end again;
+    // needed only when the last two workers go idle at once, each seeing
+    // the other still busy.
+    private static final long PARK_NANOS = 1000000;
+    private final Heuristic heuristic;
+    private final SearchBudget budget;
+    private final Worker[] workers;
+    // Set once the search is found to be over.
+    private volatile boolean done;
+    // The shortest path to the goal found so far, null until one is.
+    private final AtomicReference<SearchNode> incumbent =
+        new AtomicReference<SearchNode>();
+    // First exception thrown by a worker; stops the others.
+    private volatile Throwable failure;
+
+    ParallelAStar(Heuristic heuristic, int threads, SearchBudget budget) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads must be positive");
+        this.heuristic = heuristic;
+        this.budget = budget;
+        workers = new Worker[threads];
+        for (int k = 0; k < threads; k++)
+            workers[k] = new Worker();
+    }
+
+    /* A shortest path from initial to the goal, as a chain of nodes ending
+    at the goal. initial must be solvable.
+    */
+    SearchNode solve(Board initial) {
+        Worker first = owner(initial);
+        first.inbox.add(
+                new SearchNode(initial, null, initial.estimate(heuristic)));
+        first.sent = 1;
+        Thread[] threads = new Thread[workers.length];
+        for (int k = 0; k < threads.length; k++)
+            workers[k].thread = threads[k] = new Thread(workers[k], "hda-" + k);
+        for (Thread thread : threads)
+            thread.start();
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure != null)
+            throw new IllegalStateException("Search failed", failure);
+        return incumbent.get();
+    }
+
+    // Worker that stores and expands board: the high bits of its hash
+    // scaled to the number of workers.
+    private Worker owner(Board board) {
+        long hash = board.hashCode() & 0xffffffffL;
+        return workers[(int) ((hash * workers.length) >>> 32)];
+    }
+
+    // Is node no shorter a path than the incumbent could give?
+    private boolean hopeless(SearchNode node) {
+        SearchNode best = incumbent.get();
+        return best != null && node.priority >= best.moves;
+    }
+
+    // Make goal, a node on the goal board, the incumbent if it is shorter.
+    private void offer(SearchNode goal) {
+        while (true) {
+            SearchNode best = incumbent.get();
+            if (best != null && best.moves <= goal.moves)
+                return;
+            if (incumbent.compareAndSet(best, goal))
+                return;
+        }
+    }
+
+    /* Has the search ended? Two scans of the workers must find every one
+    idle, with as many nodes received in all as sent, and the same total
+    both times. Counts only grow, so no worker can have received anything
+    in between, and at that point there was nothing left to do.
+    */
+    private boolean quiescent() {
+        long first = received();
+        return first >= 0 && received() == first;
+    }
+
+    // Nodes received in all if every worker is idle and that many were
+    // sent, else -1.
+    private long received() {
+        long sent = 0;
+        long received = 0;
+        for (Worker worker : workers) {
+            if (!worker.idle)
+                return -1;
+            sent += worker.publishedSent;
+            received += worker.publishedReceived;
+        }
+        return sent == received ? received : -1;
+    }
+
+    // Wake every worker to see that the search is over.
+    private void wakeAll() {
+        for (Worker worker : workers)
+            LockSupport.unpark(worker.thread);
+    }
+
+    private class Worker implements Runnable {
+        private final Queue<SearchNode> inbox =
+            new ConcurrentLinkedQueue<SearchNode>();
+        private final BucketQueue open = new BucketQueue();
+        // Fewest moves known to each board this worker owns.
+        private final TranspositionTable closed = new TranspositionTable();
+        // This worker's work arrays for Board.estimate.
+        private int[] flat, scratch;
+        private Thread thread;
+        // Nodes this worker has put in inboxes (the initial node counts as
+        // sent by its owner) and taken from its own, and the same counts
+        // as of the last time it ran out of work.
+        private long sent, received;
+        private volatile long publishedSent, publishedReceived;
+        // Set, after the counts are published, while out of work.
+        private volatile boolean idle;
+
+        public void run() {
+            try {
+                while (failure == null && !done) {
+                    for (SearchNode node; (node = inbox.poll()) != null; ) {
+                        received++;
+                        receive(node);
+                    }
+                    if (!open.isEmpty())
+                        expand(open.delMin());
+                    else
+                        rest();
+                }
+            }
+            catch (Throwable e) {
+                failure = e;
+                wakeAll();
+            }
+        }
+
+        /* Out of work: publish the counts and, unless a node has come in
+        meanwhile or this worker finds the search over, park. A sender sees
+        idle set, or this worker sees the sender's node, so a node sent
+        now always wakes it.
+        */
+        private void rest() {
+            publishedSent = sent;
+            publishedReceived = received;
+            idle = true;
+            if (inbox.isEmpty()) {
+                if (quiescent()) {
+                    done = true;
+                    wakeAll();
+                }
+                else
+                    LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            idle = false;
+        }
+
+        // Put node in its owner's inbox, waking the owner if it is idle.
+        private void send(SearchNode node) {
+            Worker owner = owner(node.board);
+            sent++;
+            owner.inbox.add(node);
+            if (owner.idle)
+                LockSupport.unpark(owner.thread);
+        }
+
+        // Take ownership of node: keep it if it is the shortest path yet
+        // to a board that isn't the goal.
+        private void receive(SearchNode node) {
+            int known = closed.get(node.board.key());
+            if (known >= 0 && known <= node.moves || hopeless(node))
+                return;
+            closed.put(node.board.key(), node.moves);
+            if (node.board.isGoal()) {
+                offer(node);
+                return;
+            }
+            open.insert(node);
+        }
+
+        private void expand(SearchNode node) {
+            // A shorter path to the board may have arrived since, or the
+            // incumbent improved.
+            if (closed.get(node.board.key()) < node.moves || hopeless(node))
+                return;
+            budget.expand();
+            if (flat == null) {
+                int dim = node.board.dimension();
+                flat = new int[dim * dim];
+                scratch = new int[dim * dim];
+            }
+            Board previous = node.previous == null ? null
+                : node.previous.board;
+            for (Board neighbor : node.board.neighbors()) {
+                if (neighbor.equals(previous))
+                    continue;
+                SearchNode child = new SearchNode(neighbor, node,
+                        neighbor.estimate(heuristic, node.board,
+                            node.estimate(), flat, scratch));
+                if (!hopeless(child))
+                    send(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*************************************************************************
+ *  Compilation:  javac PatternDatabase.java
+ *  Execution:    java PatternDatabase N file
+ *
+ *  Additive disjoint pattern databases (Korf and Felner 2002). The blocks
+ *  are split into disjoint patterns, and for each pattern a table gives,
+ *  for every placement of its blocks, the fewest moves of those blocks
+ *  (moves of other blocks are free) that bring them home from there. No
+ *  move is counted in two tables, so the sum over patterns is a lower
+ *  bound. The patterns must cover every block, which makes it one that
+ *  dominates Manhattan distance, and 0 only on the goal.
+ *
+ *  Tables are built by a breadth-first search backwards from the goal and
+ *  written to a file once; later processes memory-map the file read-only,
+ *  so they start instantly and share the pages. The file is a header
+ *  ("PDB1", N, number of patterns, then each pattern's size and blocks as
+ *  ints) followed by one byte per placement for each pattern in turn. A
+ *  placement of k blocks on n squares is numbered in mixed radix
+ *  n, n - 1, ..., n - k + 1, its i-th digit the position of the i-th block
+ *  among the squares not taken by blocks before it, so a table has
+ *  n! / (n - k)! entries: 5.8 MB for each 6 of the 15-puzzle's 6-6-3, or
+ *  576 MB for a 7-8 split.
+ *
+ *  % java PatternDatabase 4 puzzle4x4.pdb
+ *
+ *************************************************************************/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class PatternDatabase implements Heuristic {
+
+    private static final int MAGIC = 0x50444231; // "PDB1"
+    // Placements are numbered with positions in 6 bits and searched with
+    // occupancy in a long, so boards can have at most 64 squares. The
+    // whole file is one mapping, so the tables together must also fit in
+    // 2^31 - 1 bytes: on 8x8 that means patterns of at most 4 blocks.
+    private static final int MAX_DIM = 8;
+    private static final byte UNSEEN = -1;
+    private final int dim;
+    private final int[][] patterns;
+    // Pattern containing each block (-1 for none) and the block's index
+    // in it.
+    private final int[] patternOf, indexOf;
+    private final MappedByteBuffer tables;
+    // Offset of each pattern's table in tables.
+    private final int[] offsets;
+
+    private PatternDatabase(int dim, int[][] patterns, MappedByteBuffer tables,
+            int headerBytes) {
+        this.dim = dim;
+        this.patterns = patterns;
+        this.tables = tables;
+        int n = dim * dim;
+        patternOf = new int[n];
+        indexOf = new int[n];
+        Arrays.fill(patternOf, -1);
+        offsets = new int[patterns.length];
+        int offset = headerBytes;
+        for (int p = 0; p < patterns.length; p++) {
+            offsets[p] = offset;
+            offset += (int) placements(n, patterns[p].length);
+            for (int i = 0; i < patterns[p].length; i++) {
+                patternOf[patterns[p][i]] = p;
+                indexOf[patterns[p][i]] = i;
+            }
+        }
+    }
+
+    // the usual partition of the blocks of an N-by-N board: all 8 blocks
+    // together for N = 3, 6-6-3 for N = 4
+    public static int[][] defaultPatterns(int N) {
+        if (N == 3)
+            return new int[][] { { 1, 2, 3, 4, 5, 6, 7, 8 } };
+        if (N == 4)
+            return new int[][] {
+                { 1, 5, 6, 9, 10, 13 }, { 7, 8, 11, 12, 14, 15 }, { 2, 3, 4 }
+            };
+        throw new IllegalArgumentException("No default patterns for N = " + N);
+    }
+
+    // the database in file, built with the default patterns for N and
+    // saved there first if file doesn't exist yet or can't be loaded
+    public static PatternDatabase open(Path file, int N) throws IOException {
+        if (Files.exists(file)) {
+            try {
+                PatternDatabase database = load(file);
+                if (database.dim == N)
+                    return database;
+            }
+            catch (IOException | IllegalArgumentException e) {
+                // Left by a crash before saves were atomic, or not ours;
+                // replace it below.
+            }
+        }
+        generate(N, defaultPatterns(N), file);
+        return load(file);
+    }
+
+    // memory-map the database saved in file by generate()
+    public static PatternDatabase load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to map");
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+            if (map.remaining() < 12 || map.getInt() != MAGIC)
+                throw new IOException(file + " is not a pattern database");
+            int dim = map.getInt();
+            int[][] patterns = new int[map.getInt()][];
+            for (int p = 0; p < patterns.length; p++) {
+                patterns[p] = new int[map.getInt()];
+                for (int i = 0; i < patterns[p].length; i++)
+                    patterns[p][i] = map.getInt();
+            }
+            validate(dim, patterns);
+            long size = map.position();
+            for (int[] pattern : patterns)
+                size += placements(dim * dim, pattern.length);
+            if (size != channel.size())
+                throw new IOException(file + ": truncated pattern database");
+            return new PatternDatabase(dim, patterns, map, map.position());
+        }
+    }
+
+    /* Build the tables for patterns of an N-by-N board and write them to
+    file, replacing it. Building a pattern of k blocks takes about
+    n! / (n - k)! * n / 8 bytes of memory besides the table, n = N * N.
+    The database is written to a temporary file beside file, forced to
+    disk and then moved over file, so a crash or a second process never
+    leaves a partial database there, or truncates one that is mapped.
+    */
+    public static void generate(int N, int[][] patterns, Path file)
+            throws IOException {
+        validate(N, patterns);
+        ByteBuffer header = ByteBuffer.allocate(4 * (3 + patterns.length
+                    + Arrays.stream(patterns).mapToInt(p -> p.length).sum()));
+        header.putInt(MAGIC).putInt(N).putInt(patterns.length);
+        for (int[] pattern : patterns) {
+            header.putInt(pattern.length);
+            for (int block : pattern)
+                header.putInt(block);
+        }
+        header.flip();
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(),
+                file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE)) {
+                while (header.hasRemaining())
+                    channel.write(header);
+                for (int[] pattern : patterns) {
+                    ByteBuffer table = ByteBuffer.wrap(build(N, pattern));
+                    while (table.hasRemaining())
+                        channel.write(table);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Patterns must partition blocks 1..N^2-1 into sets each small enough
+    // for its placement to pack into a long, and the header and all the
+    // tables together must fit in one mapping, indexed by an int.
+    private static void validate(int N, int[][] patterns) {
+        if (N < 2 || N > MAX_DIM)
+            throw new IllegalArgumentException("N must be in 2.." + MAX_DIM);
+        int n = N * N;
+        boolean[] seen = new boolean[n];
+        long bytes = 4L * (3 + patterns.length);
+        for (int[] pattern : patterns) {
+            if (pattern.length == 0 || pattern.length > 9)
+                throw new IllegalArgumentException("Pattern too large");
+            bytes += 4L * pattern.length + placements(n, pattern.length);
+            if (bytes > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Tables too large: they "
+                        + "must total less than 2^31 bytes");
+            for (int block : pattern) {
+                if (block <= 0 || block >= n || seen[block])
+                    throw new IllegalArgumentException("Bad pattern block " + block);
+                seen[block] = true;
+            }
+        }
+        for (int block = 1; block < n; block++)
+            if (!seen[block])
+                throw new IllegalArgumentException("Block " + block
+                        + " is in no pattern");
+    }
+
+    // n! / (n - k)!
+    private static long placements(int n, int k) {
+        long count = 1;
+        for (int i = 0; i < k; i++)
+            count *= n - i;
+        return count;
+    }
+
+    /* Number of the placement with the i-th block of a k-block pattern at
+    pos[i], on a board of n squares.
+    */
+    private static int rank(int[] pos, int k, int n) {
+        long taken = 0;
+        int index = 0;
+        for (int i = 0; i < k; i++) {
+            int free = pos[i] - Long.bitCount(taken & ((1L << pos[i]) - 1));
+            index = index * (n - i) + free;
+            taken |= 1L << pos[i];
+        }
+        return index;
+    }
+
+    /* Breadth-first search over placements of pattern, outward from the
+    goal. Other blocks are indistinguishable and move for free, so a state
+    is a placement plus the region of empty squares the blank can wander
+    in, named by its lowest square, and one step is a pattern block sliding
+    into a neighboring square of that region. States are visited in order
+    of cost, so the first time a placement is reached is its table entry.
+    The queue holds states as pattern positions in 6-bit fields above the
+    region's square.
+    */
+    private static byte[] build(int N, int[] pattern) {
+        int n = N * N;
+        int k = pattern.length;
+        byte[] table = new byte[(int) placements(n, k)];
+        Arrays.fill(table, UNSEEN);
+        long[] visited = new long[(int) ((table.length * (long) n + 63) >>> 6)];
+        long[] neighbors = new long[n];
+        for (int pos = 0; pos < n; pos++) {
+            if (pos >= N)        neighbors[pos] |= 1L << (pos - N);
+            if (pos < n - N)     neighbors[pos] |= 1L << (pos + N);
+            if (pos % N > 0)     neighbors[pos] |= 1L << (pos - 1);
+            if (pos % N < N - 1) neighbors[pos] |= 1L << (pos + 1);
+        }
+        int[] pos = new int[k];
+        long occupied = 0;
+        for (int i = 0; i < k; i++) {
+            pos[i] = pattern[i] - 1;
+            occupied |= 1L << pos[i];
+        }
+        long region = region(n - 1, occupied, neighbors);
+        int square = Long.numberOfTrailingZeros(region);
+        mark(visited, (long) rank(pos, k, n) * n + square);
+        LongQueue current = new LongQueue();
+        LongQueue next = new LongQueue();
+        current.add(encode(pos, k, square));
+        for (int cost = 0; !current.isEmpty(); cost++) {
+            while (!current.isEmpty()) {
+                long state = current.remove();
+                occupied = 0;
+                for (int i = 0; i < k; i++) {
+                    pos[i] = (int) (state >>> (6 * (i + 1))) & 63;
+                    occupied |= 1L << pos[i];
+                }
+                int index = rank(pos, k, n);
+                if (table[index] == UNSEEN)
+                    table[index] = (byte) Math.min(cost, Byte.MAX_VALUE);
+                region = region((int) state & 63, occupied, neighbors);
+                for (int i = 0; i < k; i++) {
+                    int from = pos[i];
+                    for (long to = neighbors[from] & region; to != 0;
+                            to &= to - 1) {
+                        pos[i] = Long.numberOfTrailingZeros(to);
+                        long moved = occupied ^ (1L << from) ^ (1L << pos[i]);
+                        square = Long.numberOfTrailingZeros(
+                                region(from, moved, neighbors));
+                        if (mark(visited, (long) rank(pos, k, n) * n + square))
+                            next.add(encode(pos, k, square));
+                    }
+                    pos[i] = from;
+                }
+            }
+            LongQueue swap = current;
+            current = next;
+            next = swap;
+        }
+        return table;
+    }
+
+    // Squares reachable from start through squares not in occupied.
+    private static long region(int start, long occupied, long[] neighbors) {
+        long region = 1L << start;
+        long frontier = region;
+        while (frontier != 0) {
+            long grown = 0;
+            for (long f = frontier; f != 0; f &= f - 1)
+                grown |= neighbors[Long.numberOfTrailingZeros(f)];
+            frontier = grown & ~occupied & ~region;
+            region |= frontier;
+        }
+        return region;
+    }
+
+    private static long encode(int[] pos, int k, int square) {
+        long state = square;
+        for (int i = 0; i < k; i++)
+            state |= (long) pos[i] << (6 * (i + 1));
+        return state;
+    }
+
+    // Set bit; return whether it was clear.
+    private static boolean mark(long[] bits, long bit) {
+        long mask = 1L << bit;
+        int word = (int) (bit >>> 6);
+        if ((bits[word] & mask) != 0)
+            return false;
+        bits[word] |= mask;
+        return true;
+    }
+
+    // Growable FIFO of longs; the search queues can hold millions of
+    // states, too many to box.
+    private static class LongQueue {
+        private long[] items = new long[1024];
+        private int head, tail;
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+
+        void add(long item) {
+            if (tail == items.length) {
+                if (head > items.length / 2) {
+                    System.arraycopy(items, head, items, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                }
+                else
+                    items = Arrays.copyOf(items, 2 * items.length);
+            }
+            items[tail++] = item;
+        }
+
+        long remove() {
+            long item = items[head++];
+            if (head == tail)
+                head = tail = 0;
+            return item;
+        }
+    }
+
+    public int estimate(int[] blocks, int dim) {
+        check(dim);
+        int[][] pos = new int[patterns.length][];
+        for (int p = 0; p < patterns.length; p++)
+            pos[p] = new int[patterns[p].length];
+        for (int square = 0; square < blocks.length; square++) {
+            int block = blocks[square];
+            if (block != 0 && patternOf[block] >= 0)
+                pos[patternOf[block]][indexOf[block]] = square;
+        }
+        int sum = 0;
+        for (int p = 0; p < patterns.length; p++)
+            sum += lookup(p, pos[p]);
+        return sum;
+    }
+
+    // Only the moved block's pattern has a new placement, which is
+    // gathered into scratch.
+    public int update(int[] blocks, int dim, int estimate, int from, int to,
+            int[] scratch) {
+        check(dim);
+        int p = patternOf[blocks[to]];
+        if (p < 0)
+            return estimate;
+        for (int square = 0; square < blocks.length; square++) {
+            int block = blocks[square];
+            if (block != 0 && patternOf[block] == p)
+                scratch[indexOf[block]] = square;
+        }
+        int after = lookup(p, scratch);
+        scratch[indexOf[blocks[to]]] = from;
+        return estimate - lookup(p, scratch) + after;
+    }
+
+    // Table entry of pattern p for the placement in pos[0..k).
+    private int lookup(int p, int[] pos) {
+        int index = rank(pos, patterns[p].length, dim * dim);
+        return tables.get(offsets[p] + index);
+    }
+
+    private void check(int dim) {
+        if (dim != this.dim)
+            throw new IllegalArgumentException("Database is for " + this.dim
+                    + "-by-" + this.dim + " boards, not " + dim);
+    }
+
+    // build and save the default database for N-by-N boards
+    public static void main(String[] args) throws IOException {
+        int N = Integer.parseInt(args[0]);
+        long start = System.nanoTime();
+        generate(N, defaultPatterns(N), Paths.get(args[1]));
+        System.out.println("built in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+}
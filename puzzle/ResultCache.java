@@ -0,0 +1,87 @@
+/*************************************************************************
+ *  Compilation:  javac ResultCache.java
+ *
+ *  Least-recently-used map from boards to their minimum number of moves
+ *  (-1 for unsolvable), for BatchSolver. Boards are keyed by a canonical
+ *  text encoding, the dimension then the blocks in row-major order, so
+ *  equal boards from different files share an entry, and the cache can be
+ *  saved to a text file, one "encoding<TAB>moves" line per board from
+ *  least to most recently used, and loaded again by a later run. Safe for
+ *  use by several threads.
+ *
+ *************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class ResultCache {
+
+    private final Map<String, Integer> moves;
+
+    // cache of at most capacity boards
+    ResultCache(final int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        moves = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> e) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // canonical encoding of board
+    static String key(Board board) {
+        StringBuilder s = new StringBuilder();
+        s.append(board.dimension());
+        for (int block : board.blocks())
+            s.append(' ').append(block);
+        return s.toString();
+    }
+
+    // moves cached for key, or null
+    synchronized Integer get(String key) {
+        return moves.get(key);
+    }
+
+    synchronized void put(String key, int value) {
+        moves.put(key, value);
+    }
+
+    // add the entries saved in file, if it exists
+    synchronized void load(Path file) throws IOException {
+        if (!Files.exists(file))
+            return;
+        try (BufferedReader in = Files.newBufferedReader(file,
+                    StandardCharsets.US_ASCII)) {
+            for (String line; (line = in.readLine()) != null; ) {
+                int tab = line.indexOf('\t');
+                if (tab < 0)
+                    throw new IOException(file + ": bad line: " + line);
+                moves.put(line.substring(0, tab),
+                        Integer.parseInt(line.substring(tab + 1)));
+            }
+        }
+    }
+
+    // write the entries to file, replacing it only once all are written
+    synchronized void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp,
+                    StandardCharsets.US_ASCII)) {
+            for (Map.Entry<String, Integer> e : moves.entrySet()) {
+                out.write(e.getKey() + "\t" + e.getValue());
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,58 @@
+/*************************************************************************
+ *  Compilation:  javac SearchBudget.java
+ *
+ *  A limit on the boards a Solver may expand and on its running time,
+ *  so that one hard board can't hold up a batch. A search that runs over
+ *  throws SearchBudget.ExhaustedException. The clock starts when the
+ *  budget is made, and a budget can be shared by the threads of one
+ *  search but not reused for another.
+ *
+ *************************************************************************/
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SearchBudget {
+
+    // no limit at all
+    public static final SearchBudget UNLIMITED =
+        new SearchBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+    // The clock is read once per this many expansions; a power of two.
+    private static final int CLOCK_INTERVAL = 1024;
+    private final long maxNodes;
+    private final long deadline;
+    private final boolean limited;
+    private final AtomicLong expanded = new AtomicLong();
+
+    // allow at most maxNodes expansions and maxMillis milliseconds from now
+    public SearchBudget(long maxNodes, long maxMillis) {
+        if (maxNodes <= 0 || maxMillis <= 0)
+            throw new IllegalArgumentException("Budget must be positive");
+        this.maxNodes = maxNodes;
+        long now = System.nanoTime();
+        // Saturate rather than overflow for effectively unlimited times.
+        long nanos = maxMillis > Long.MAX_VALUE / 2000000 ? Long.MAX_VALUE / 2
+            : maxMillis * 1000000;
+        deadline = now + nanos;
+        limited = maxNodes != Long.MAX_VALUE || maxMillis != Long.MAX_VALUE;
+    }
+
+    // Charge one expansion; throw if that goes over the budget.
+    void expand() {
+        if (!limited)
+            return;
+        long n = expanded.incrementAndGet();
+        if (n > maxNodes)
+            throw new ExhaustedException(n - 1 + " expansions");
+        if ((n & (CLOCK_INTERVAL - 1)) == 0 && System.nanoTime() - deadline > 0)
+            throw new ExhaustedException("time limit after " + n + " expansions");
+    }
+
+    // thrown by a search that runs over its budget
+    public static class ExhaustedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ExhaustedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*************************************************************************
+ *  Compilation:  javac SearchNode.java
+ *
+ *  A board reached by one of Solver's searches, with the number of moves
+ *  and the previous node on the path that reached it. Its priority is
+ *  moves plus the search's estimate of the moves still to go.
+ *
+ *************************************************************************/
+
+class SearchNode {
+    final Board board;
+    final int moves;
+    final SearchNode previous;
+    final int priority;
+    // Next node in the same BucketQueue bucket.
+    SearchNode next;
+
+    // node for board reached from previous (null at the start), with
+    // estimate moves still to go
+    SearchNode(Board board, SearchNode previous, int estimate) {
+        this.board = board;
+        this.previous = previous;
+        if (previous == null) moves = 0;
+        else                  moves = previous.moves + 1;
+        priority = estimate + moves;
+    }
+
+    // node for board reached in moves moves by a path that isn't kept,
+    // with estimate moves still to go
+    SearchNode(Board board, int moves, int estimate) {
+        this.board = board;
+        this.previous = null;
+        this.moves = moves;
+        priority = estimate + moves;
+    }
+
+    // the estimate of moves still to go that the node was made with
+    int estimate() {
+        return priority - moves;
+    }
+}
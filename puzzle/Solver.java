@@ -1,53 +1,128 @@
+import java.io.IOException;
+
 public class Solver {
+    private final Heuristic heuristic;
+    private final SearchBudget budget;
     private SearchNode result;
+    // Work arrays for Board.estimate, so A* allocates none per board.
+    private int[] flat, scratch;
 
-    private class SearchNode implements Comparable<SearchNode> {
-        private final Board board;
-        private final int moves;
-        private final SearchNode previous;
-        private final int priority;
-
-        private SearchNode(Board b, SearchNode p) {
-            board = b;
-            previous = p;
-            if (previous == null) moves = 0;
-            else                  moves = previous.moves + 1;
-            priority = board.manhattan() + moves;
-            // Property of A* algorithm.
-            assert previous == null || priority >= previous.priority;
-        }
-
-        public int compareTo(SearchNode that)
-        {   return this.priority - that.priority; }
+    // Search algorithms a Solver can use.
+    public enum Algorithm {
+        // A*: expands each board at most once, but keeps every board it
+        // has generated in memory
+        A_STAR,
+        // iterative-deepening A*: memory proportional to the solution
+        // length, at the cost of re-expanding boards
+        IDA_STAR,
+        // A* from both ends at once, meeting in the middle: still optimal,
+        // with smaller frontiers on long solutions
+        BIDIRECTIONAL,
+        // hash-distributed A* on one thread per available processor
+        PARALLEL_A_STAR
     }
 
     // find a solution to the initial board (using the A* algorithm)
     public Solver(Board initial) {
-        if (initial.isGoal())
-            result = new SearchNode(initial, null);
+        this(initial, Algorithm.A_STAR);
+    }
+
+    // find a solution to the initial board using the given algorithm
+    public Solver(Board initial, Algorithm algorithm) {
+        this(initial, algorithm, Heuristic.MANHATTAN);
+    }
+
+    // find a solution to the initial board using the given algorithm,
+    // guided by the given heuristic
+    public Solver(Board initial, Algorithm algorithm, Heuristic heuristic) {
+        this(initial, algorithm, heuristic, SearchBudget.UNLIMITED);
+    }
+
+    // as above, but throw SearchBudget.ExhaustedException if the search
+    // goes over budget
+    public Solver(Board initial, Algorithm algorithm, Heuristic heuristic,
+            SearchBudget budget) {
+        this.heuristic = heuristic;
+        this.budget = budget;
+        if (!initial.isSolvable())
+            result = null;
+        else if (initial.isGoal())
+            result = node(initial, null);
+        else if (algorithm == Algorithm.IDA_STAR)
+            result = path(initial, new IDAStar(initial, heuristic, budget).solve());
+        else if (algorithm == Algorithm.BIDIRECTIONAL)
+            result = new BidirectionalSearch(initial, heuristic,
+                    budget).solve();
+        else if (algorithm == Algorithm.PARALLEL_A_STAR)
+            result = new ParallelAStar(heuristic,
+                    Runtime.getRuntime().availableProcessors(), budget)
+                .solve(initial);
         else
-            result = solve(initial, initial.twin());
+            result = solve(initial);
     }
 
-    private SearchNode step(MinPQ<SearchNode> pq) {
-        SearchNode least = pq.delMin();
+    // Node for board reached from previous (null at the start).
+    private SearchNode node(Board board, SearchNode previous) {
+        if (flat == null) {
+            flat = new int[board.dimension() * board.dimension()];
+            scratch = new int[flat.length];
+        }
+        int estimate = previous == null ? board.estimate(heuristic)
+            : board.estimate(heuristic, previous.board, previous.estimate(),
+                    flat, scratch);
+        SearchNode node = new SearchNode(board, previous, estimate);
+        // Property of A* algorithm with a consistent heuristic.
+        assert previous == null || node.priority >= previous.priority
+            || heuristic != Heuristic.MANHATTAN;
+        return node;
+    }
+
+    // Chain of nodes from initial through the boards reached by moving the
+    // blank to each of blanks in turn; null if blanks is.
+    private SearchNode path(Board initial, int[] blanks) {
+        if (blanks == null)
+            return null;
+        SearchNode node = new SearchNode(initial, null, 0);
+        for (int pos : blanks)
+            node = new SearchNode(node.board.slide(pos), node, 0);
+        return node;
+    }
+
+    /* Expand the least node of pq that reaches its board in fewer moves
+    than any expanded before and return it. closed maps each expanded
+    board to those fewest moves. With a consistent heuristic the first
+    expansion of a board is already by a shortest path and nothing is
+    expanded twice; with an inconsistent one a board can be reopened,
+    which keeps A* optimal.
+    */
+    private SearchNode step(BucketQueue pq, TranspositionTable closed) {
+        SearchNode least;
+        do {
+            least = pq.delMin();
+        } while (!improves(closed, least.board, least.moves));
+        budget.expand();
+        closed.put(least.board.key(), least.moves);
         for (Board neighbor: least.board.neighbors()) {
-            if (least.previous == null || !neighbor.equals(least.previous.board))
-                pq.insert(new SearchNode(neighbor, least));
+            if (improves(closed, neighbor, least.moves + 1))
+                pq.insert(node(neighbor, least));
         }
         return least;
     }
 
-    private SearchNode solve(Board initial, Board twin) {
-        SearchNode last;
-        MinPQ<SearchNode> mainpq = new MinPQ<SearchNode>();
-        MinPQ<SearchNode> twinpq = new MinPQ<SearchNode>();
-        mainpq.insert(new SearchNode(initial, null));
-        twinpq.insert(new SearchNode(twin, null));
+    // Is board unexpanded, or expanded only after more than moves moves?
+    private static boolean improves(TranspositionTable closed, Board board,
+            int moves) {
+        int expanded = closed.get(board.key());
+        return expanded < 0 || moves < expanded;
+    }
+
+    private SearchNode solve(Board initial) {
+        BucketQueue pq = new BucketQueue();
+        TranspositionTable closed = new TranspositionTable();
+        pq.insert(node(initial, null));
         while (true) {
-            last = step(mainpq);
+            SearchNode last = step(pq, closed);
             if (last.board.isGoal()) return last;
-            if (step(twinpq).board.isGoal()) return null;
         }
     }
 
@@ -74,7 +149,7 @@ public class Solver {
     }
 
     // solve a slider puzzle (given below)
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         // create initial board from file
         In in = new In(args[0]);
         int N = in.readInt();
@@ -84,8 +159,15 @@ public class Solver {
                 blocks[i][j] = in.readInt();
         Board initial = new Board(blocks);
 
-        // solve the puzzle
-        Solver solver = new Solver(initial);
+        // solve the puzzle, with the algorithm named by args[1] and the
+        // heuristic named by args[2] if given
+        Algorithm algorithm = Algorithm.A_STAR;
+        if (args.length > 1)
+            algorithm = Algorithm.valueOf(args[1]);
+        Heuristic heuristic = Heuristic.MANHATTAN;
+        if (args.length > 2)
+            heuristic = Heuristic.named(args[2], N);
+        Solver solver = new Solver(initial, algorithm, heuristic);
 
         // print solution to standard output
         if (!solver.isSolvable())
@@ -0,0 +1,82 @@
+/*************************************************************************
+ *  Compilation:  javac TranspositionTable.java
+ *
+ *  Map from board keys (see Board.key()) to small non-negative ints,
+ *  used by Solver as its closed set. Open addressing with linear probing
+ *  over parallel primitive arrays, so an entry costs 12 bytes and no
+ *  objects.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+
+class TranspositionTable {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final long PHI = 0x9e3779b97f4a7c15L;
+    private long[] keys;
+    // -1 marks an empty slot.
+    private int[] values;
+    private int size;
+    private int shift;
+
+    TranspositionTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    // Home slot of key: Fibonacci hashing, the top bits of key * 2^64/phi.
+    // Packed boards need the mixing; Zobrist keys are uniform already.
+    private int slot(long key) {
+        return (int) ((key * PHI) >>> shift);
+    }
+
+    // value stored for key, or -1
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = slot(key); values[i] >= 0; i = (i + 1) & mask)
+            if (keys[i] == key)
+                return values[i];
+        return -1;
+    }
+
+    // store value >= 0 for key, replacing any previous value
+    void put(long key, int value) {
+        assert value >= 0;
+        int mask = keys.length - 1;
+        int i = slot(key);
+        for (; values[i] >= 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        // Keep the load factor at most 1/2 so probe runs stay short.
+        if (++size * 2 > keys.length)
+            resize(keys.length * 2);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] < 0)
+                continue;
+            int i = slot(oldKeys[j]);
+            while (values[i] >= 0)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}